@@ -0,0 +1,71 @@
+package org.vaadin.peholmst.samples.springsecurity.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.ServiceException;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+/**
+ * Creates the application contexts, sessions and UIs that the benchmarks run against.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Starts the given sample application on a random port. Both sample modules are on the classpath, so the
+     * configuration is read from the copy that the module keeps in a directory of its own name, e.g.
+     * {@code hybrid-security/application.properties}.
+     */
+    static ConfigurableApplicationContext startApplication(Class<?> applicationClass, String module) {
+        return new SpringApplicationBuilder(applicationClass)
+            .run("--spring.config.location=classpath:/" + module + "/", "--server.port=0", "--management.port=0",
+                "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+    }
+
+    /**
+     * Creates a Vaadin session that is not bound to any HTTP session. The session is not locked.
+     */
+    static VaadinSession createSession() throws ServiceException {
+        VaadinServletService service = new VaadinServletService(new VaadinServlet(),
+            new DefaultDeploymentConfiguration(BenchmarkSupport.class, new Properties()));
+        Lock lock = new ReentrantLock();
+        return new VaadinSession(service) {
+
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+    }
+
+    /**
+     * Creates an empty UI that belongs to the given session.
+     */
+    static UI createUI(VaadinSession session) {
+        UI ui = new UI() {
+
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+        };
+        session.lock();
+        try {
+            ui.setSession(session);
+        } finally {
+            session.unlock();
+        }
+        return ui;
+    }
+}
@@ -0,0 +1,122 @@
+package org.vaadin.peholmst.samples.springsecurity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.BackendService;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.FilterBasedSecuritySampleApplication;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.SampleViewAccessControl;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.SecurityUtils;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Security hot paths of the filter based sample, measured against the beans of the real application context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBasedSecurityBenchmark {
+
+    private ConfigurableApplicationContext applicationContext;
+
+    private AuthenticationManager authenticationManager;
+
+    private BackendService backendService;
+
+    private SampleViewAccessControl viewAccessControl;
+
+    private UI ui;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        applicationContext = BenchmarkSupport.startApplication(FilterBasedSecuritySampleApplication.class,
+            "filter-based-security");
+        authenticationManager = applicationContext.getBean(AuthenticationManager.class);
+        backendService = applicationContext.getBean(BackendService.class);
+        viewAccessControl = applicationContext.getBean(SampleViewAccessControl.class);
+        ui = BenchmarkSupport.createUI(BenchmarkSupport.createSession());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    /**
+     * Binds an authenticated admin to the benchmark thread, like the security filter chain does for each request.
+     */
+    @State(Scope.Thread)
+    public static class LoggedInAdmin {
+
+        @Setup(Level.Trial)
+        public void logIn(FilterBasedSecurityBenchmark benchmark) {
+            SecurityContextHolder.getContext().setAuthentication(
+                benchmark.authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("admin", "p")));
+        }
+
+        @TearDown(Level.Trial)
+        public void logOut() {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Benchmark
+    public boolean isLoggedIn(LoggedInAdmin admin) {
+        return SecurityUtils.isLoggedIn();
+    }
+
+    @Benchmark
+    public boolean hasRoleGranted(LoggedInAdmin admin) {
+        return SecurityUtils.hasRole("ROLE_USER");
+    }
+
+    @Benchmark
+    public boolean hasRoleDenied(LoggedInAdmin admin) {
+        return SecurityUtils.hasRole("ROLE_AUDITOR");
+    }
+
+    @Benchmark
+    public boolean isAccessGrantedAdminView(LoggedInAdmin admin) {
+        return viewAccessControl.isAccessGranted(ui, "adminView");
+    }
+
+    @Benchmark
+    public boolean isAccessGrantedUserView(LoggedInAdmin admin) {
+        return viewAccessControl.isAccessGranted(ui, "userView");
+    }
+
+    @Benchmark
+    public String securedUserMethod(LoggedInAdmin admin) {
+        return backendService.userMethod();
+    }
+
+    @Benchmark
+    public String securedAdminMethod(LoggedInAdmin admin) {
+        return backendService.adminMethod();
+    }
+
+    @Benchmark
+    public Authentication authenticate() {
+        return authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "p"));
+    }
+}
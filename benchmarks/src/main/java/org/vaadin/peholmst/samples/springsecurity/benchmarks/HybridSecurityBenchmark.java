@@ -0,0 +1,132 @@
+package org.vaadin.peholmst.samples.springsecurity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.BackendService;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.HybridSecuritySampleApplication;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.SampleViewAccessControl;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.SecurityUtils;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+/**
+ * Security hot paths of the hybrid sample, measured against the beans of the real application context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HybridSecurityBenchmark {
+
+    private ConfigurableApplicationContext applicationContext;
+
+    private AuthenticationManager authenticationManager;
+
+    private BackendService backendService;
+
+    private SampleViewAccessControl viewAccessControl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        applicationContext = BenchmarkSupport.startApplication(HybridSecuritySampleApplication.class, "hybrid-security");
+        authenticationManager = applicationContext.getBean(AuthenticationManager.class);
+        backendService = applicationContext.getBean(BackendService.class);
+        viewAccessControl = applicationContext.getBean(SampleViewAccessControl.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    /**
+     * Gives every benchmark thread its own Vaadin session with an authenticated admin, like a logged in user whose
+     * session is bound to the thread while a request is being handled.
+     */
+    @State(Scope.Thread)
+    public static class LoggedInAdmin {
+
+        private VaadinSession session;
+
+        private UI ui;
+
+        @Setup(Level.Trial)
+        public void logIn(HybridSecurityBenchmark benchmark) throws Exception {
+            session = BenchmarkSupport.createSession();
+            ui = BenchmarkSupport.createUI(session);
+            VaadinSession.setCurrent(session);
+            session.lock();
+            try {
+                SecurityContextHolder.getContext().setAuthentication(benchmark.authenticationManager
+                    .authenticate(new UsernamePasswordAuthenticationToken("admin", "p")));
+            } finally {
+                session.unlock();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void logOut() {
+            VaadinSession.setCurrent(null);
+        }
+    }
+
+    @Benchmark
+    public boolean isLoggedIn(LoggedInAdmin admin) {
+        return SecurityUtils.isLoggedIn();
+    }
+
+    @Benchmark
+    public boolean hasRoleGranted(LoggedInAdmin admin) {
+        return SecurityUtils.hasRole("ROLE_USER");
+    }
+
+    @Benchmark
+    public boolean hasRoleDenied(LoggedInAdmin admin) {
+        return SecurityUtils.hasRole("ROLE_AUDITOR");
+    }
+
+    @Benchmark
+    public boolean isAccessGrantedAdminView(LoggedInAdmin admin) {
+        return viewAccessControl.isAccessGranted(admin.ui, "adminView");
+    }
+
+    @Benchmark
+    public boolean isAccessGrantedUserView(LoggedInAdmin admin) {
+        return viewAccessControl.isAccessGranted(admin.ui, "userView");
+    }
+
+    @Benchmark
+    public String securedUserMethod(LoggedInAdmin admin) {
+        return backendService.userMethod();
+    }
+
+    @Benchmark
+    public String securedAdminMethod(LoggedInAdmin admin) {
+        return backendService.adminMethod();
+    }
+
+    @Benchmark
+    public Authentication authenticate() {
+        return authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "p"));
+    }
+}
@@ -0,0 +1,90 @@
+package org.vaadin.peholmst.samples.springsecurity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.VaadinSessionSecurityContextHolderStrategy;
+
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Many threads reading the security context of the same Vaadin session at once, like the request, push and
+ * background threads of a busy session do. {@link #sessionAttributeLookup()} is the lookup through a locked session
+ * attribute, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SecurityContextHolderBenchmark {
+
+    private final VaadinSessionSecurityContextHolderStrategy strategy = new VaadinSessionSecurityContextHolderStrategy();
+
+    private VaadinSession session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        session = BenchmarkSupport.createSession();
+        SecurityContext context = strategy.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken("admin", null,
+            AuthorityUtils.createAuthorityList("ROLE_ADMIN", "ROLE_USER")));
+        VaadinSession.setCurrent(session);
+        session.lock();
+        try {
+            VaadinSessionSecurityContextHolderStrategy.attach(session);
+            strategy.setContext(context);
+            session.setAttribute(SecurityContext.class, context);
+        } finally {
+            session.unlock();
+            VaadinSession.setCurrent(null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BoundSession {
+
+        @Setup(Level.Trial)
+        public void bind(SecurityContextHolderBenchmark benchmark) {
+            VaadinSession.setCurrent(benchmark.session);
+        }
+
+        @TearDown(Level.Trial)
+        public void unbind() {
+            VaadinSession.setCurrent(null);
+            VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+        }
+    }
+
+    @Benchmark
+    public SecurityContext getContext(BoundSession boundSession) {
+        return strategy.getContext();
+    }
+
+    @Benchmark
+    public SecurityContext sessionAttributeLookup() {
+        session.lock();
+        try {
+            return session.getAttribute(SecurityContext.class);
+        } finally {
+            session.unlock();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+/**
+ * BCrypt password encoder whose strength is calibrated at startup, so that verifying a password takes about
+ * {@code password.encoder.target-ms} on this host. Setting {@code password.encoder.strength} skips the calibration.
+ * <p>
+ * Hashes of any strength are accepted. Hashes that are weaker than the current strength can be found with
+ * {@link #upgradeEncoding(String)} and replaced once the user has logged in.
+ */
+@Component
+public class AdaptivePasswordEncoder implements PasswordEncoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePasswordEncoder.class);
+
+    @Value("${password.encoder.strength:0}")
+    private int configuredStrength;
+
+    @Value("${password.encoder.target-ms:50}")
+    private long targetMillis;
+
+    @Value("${password.encoder.min-strength:8}")
+    private int minStrength;
+
+    @Value("${password.encoder.max-strength:16}")
+    private int maxStrength;
+
+    private int strength;
+
+    private BCryptPasswordEncoder encoder;
+
+    @PostConstruct
+    void init() {
+        strength = configuredStrength > 0 ? configuredStrength : calibrate();
+        encoder = new BCryptPasswordEncoder(strength);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return encoder.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        // The strength is read from the hash itself
+        return encoder.matches(rawPassword, encodedPassword);
+    }
+
+    /**
+     * Returns true if the given hash should be replaced by a new hash of the same password.
+     */
+    public boolean upgradeEncoding(String encodedPassword) {
+        return strengthOf(encodedPassword) < strength;
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    private int calibrate() {
+        // Every step doubles the time, pick the strongest one that still stays within the target
+        int calibrated = minStrength;
+        timeVerification(minStrength); // Warm up
+        for (int candidate = minStrength; candidate <= maxStrength; ++candidate) {
+            long millis = timeVerification(candidate);
+            if (millis > targetMillis) {
+                break;
+            }
+            calibrated = candidate;
+        }
+        LOGGER.info("Using BCrypt strength {} for a target verification time of {} ms", calibrated, targetMillis);
+        return calibrated;
+    }
+
+    private static long timeVerification(int strength) {
+        String hash = BCrypt.hashpw("calibration", BCrypt.gensalt(strength));
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; ++i) {
+            long start = System.nanoTime();
+            BCrypt.checkpw("calibration", hash);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000;
+    }
+
+    private static int strengthOf(String encodedPassword) {
+        // $2a$10$...
+        if (encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$'
+            || encodedPassword.charAt(6) != '$') {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, 6));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * The only filter of the REST API, see {@link BackendApiController}. Binds the user of the bearer token of a request
+ * to the thread for the request, and answers requests without a valid token with 401. Token requests are passed on
+ * as they are. Nothing is kept in an HTTP session; the {@code @Secured} rules of the backend decide what the user of
+ * the token may do.
+ */
+public class ApiTokenFilter extends OncePerRequestFilter {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final ApiTokenService tokenService;
+
+    public ApiTokenFilter(ApiTokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        if (BackendApiController.TOKEN_PATH.equals(request.getServletPath())) {
+            filterChain.doFilter(request, response); // Authenticates with a password, see BackendApiController
+            return;
+        }
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        Authentication authentication = header != null && header.startsWith(BEARER_PREFIX)
+            ? tokenService.verify(header.substring(BEARER_PREFIX.length())) : null;
+        if (authentication == null) {
+            // Not sendError(), as the error page is not part of the API and would redirect to the login page
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+            return;
+        }
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
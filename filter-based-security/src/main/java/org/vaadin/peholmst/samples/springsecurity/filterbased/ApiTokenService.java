@@ -0,0 +1,171 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+/**
+ * Issues and verifies the self-contained tokens of the REST API, see {@link BackendApiController}. A token holds the
+ * username, the authorities and the expiry time of the user, signed with HMAC-SHA256 and the {@code api.token.key} of
+ * the node. Verifying a token looks at nothing but the token itself, so any node that has the same key accepts it.
+ * <p>
+ * As nothing is looked up, changes to the account of a user do not apply to the tokens that have already been issued.
+ * They are only valid for {@code api.token.validity} seconds.
+ */
+@Component
+public class ApiTokenService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApiTokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int MIN_KEY_LENGTH = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final LongAdder issuedTokens = new LongAdder();
+
+    private final LongAdder acceptedTokens = new LongAdder();
+
+    private final LongAdder rejectedTokens = new LongAdder();
+
+    @Value("${api.token.key:}")
+    private String encodedKey;
+
+    @Value("${api.token.validity:300}")
+    private long validitySeconds;
+
+    private SecretKeySpec key;
+
+    // Mac instances are not thread safe, and creating one takes longer than signing a token
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::createMac);
+
+    @PostConstruct
+    void init() {
+        byte[] keyBytes;
+        if (encodedKey.isEmpty()) {
+            keyBytes = new byte[MIN_KEY_LENGTH];
+            new SecureRandom().nextBytes(keyBytes);
+            LOGGER.warn("No api.token.key configured, API tokens are signed with a random key and only valid on this "
+                + "node until it is restarted");
+        } else {
+            keyBytes = Base64.getDecoder().decode(encodedKey);
+            if (keyBytes.length < MIN_KEY_LENGTH) {
+                throw new IllegalStateException("api.token.key must be at least " + MIN_KEY_LENGTH + " bytes long");
+            }
+        }
+        key = new SecretKeySpec(keyBytes, ALGORITHM);
+        createMac(); // Fail on startup if the algorithm is not available
+    }
+
+    public long getValiditySeconds() {
+        return validitySeconds;
+    }
+
+    /**
+     * Returns a token for the given authenticated user.
+     */
+    public String issue(Authentication authentication) {
+        StringBuilder payload = new StringBuilder();
+        payload.append(System.currentTimeMillis() / 1000 + validitySeconds).append(':');
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            String name = authority.getAuthority();
+            // Complex authorities, and names with separators, can not be put in a token
+            if (name != null && name.indexOf(':') < 0 && name.indexOf(',') < 0) {
+                payload.append(name).append(',');
+            }
+        }
+        // The username goes last, so that it can contain any character
+        payload.append(':').append(authentication.getName());
+        String encodedPayload = ENCODER.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+        issuedTokens.increment();
+        return encodedPayload + '.' + ENCODER.encodeToString(sign(encodedPayload));
+    }
+
+    /**
+     * Returns the authentication that the given token stands for, or null if the token is malformed, has not been
+     * signed with the key of this node or has expired.
+     */
+    public Authentication verify(String token) {
+        Authentication authentication = null;
+        try {
+            authentication = parse(token);
+        } catch (IllegalArgumentException ex) {
+            // Not base64 or not a number, treated like any other malformed token
+        }
+        (authentication == null ? rejectedTokens : acceptedTokens).increment();
+        return authentication;
+    }
+
+    public long getIssuedTokens() {
+        return issuedTokens.sum();
+    }
+
+    public long getAcceptedTokens() {
+        return acceptedTokens.sum();
+    }
+
+    public long getRejectedTokens() {
+        return rejectedTokens.sum();
+    }
+
+    private Authentication parse(String token) {
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+        String encodedPayload = token.substring(0, separator);
+        byte[] signature = DECODER.decode(token.substring(separator + 1));
+        if (!MessageDigest.isEqual(sign(encodedPayload), signature)) { // Takes the same time wherever they differ
+            return null;
+        }
+        String payload = new String(DECODER.decode(encodedPayload), StandardCharsets.UTF_8);
+        int authoritiesStart = payload.indexOf(':');
+        int usernameStart = payload.indexOf(':', authoritiesStart + 1);
+        if (authoritiesStart < 0 || usernameStart < 0) {
+            return null;
+        }
+        if (Long.parseLong(payload.substring(0, authoritiesStart)) < System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        for (int start = authoritiesStart + 1, end; start < usernameStart; start = end + 1) {
+            end = payload.indexOf(',', start);
+            authorities.add(new SimpleGrantedAuthority(payload.substring(start, end)));
+        }
+        return SessionAuthentication.of(payload.substring(usernameStart + 1), authorities);
+    }
+
+    private byte[] sign(String encodedPayload) {
+        return macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac createMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Could not create " + ALGORITHM + " instance", ex);
+        }
+    }
+}
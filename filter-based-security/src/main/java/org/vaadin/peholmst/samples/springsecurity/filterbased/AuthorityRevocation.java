@@ -0,0 +1,195 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.stereotype.Component;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedHttpSession;
+import com.vaadin.server.WrappedSession;
+import com.vaadin.ui.UI;
+
+/**
+ * Brings the live sessions of users whose accounts have changed up to date. The sessions are found through the index
+ * of the {@link SessionRegistry}: sessions of disabled or removed accounts are ended, the others get a new
+ * authentication with the current authorities, and their open UIs are refreshed through {@link UI#access(Runnable)}.
+ * <p>
+ * The users are handled in batches on a small, bounded worker pool, so that a change that affects thousands of users
+ * neither blocks the caller nor takes over the node.
+ */
+@Component
+public class AuthorityRevocation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorityRevocation.class);
+
+    private final AtomicInteger pendingUsers = new AtomicInteger();
+
+    private final LongAdder updatedSessions = new LongAdder();
+
+    private final LongAdder endedSessions = new LongAdder();
+
+    private final LongAdder refreshedUIs = new LongAdder();
+
+    @Autowired
+    IndexedUserDetailsService userDetailsService;
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
+    @Autowired
+    SessionPersistence sessionPersistence;
+
+    @Value("${authority.revocation.threads:2}")
+    private int threads;
+
+    @Value("${authority.revocation.batch-size:256}")
+    private int batchSize;
+
+    private ExecutorService workers;
+
+    @PostConstruct
+    void start() {
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "authority-revocation-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Replaces the authorities of the given account and updates the live sessions of the user.
+     */
+    public void updateAuthorities(String username, String... authorities) {
+        userDetailsService.updateAuthorities(username, authorities);
+        accountsChanged(Collections.singletonList(username));
+    }
+
+    /**
+     * Enables or disables the given account. Disabling it ends the live sessions of the user.
+     */
+    public void setEnabled(String username, boolean enabled) {
+        userDetailsService.setEnabled(username, enabled);
+        accountsChanged(Collections.singletonList(username));
+    }
+
+    /**
+     * Updates the live sessions of the given users to their current accounts. Returns immediately.
+     */
+    public void accountsChanged(Collection<String> usernames) {
+        List<String> all = new ArrayList<>(usernames);
+        for (int i = 0; i < all.size(); i += batchSize) {
+            List<String> batch = all.subList(i, Math.min(i + batchSize, all.size()));
+            pendingUsers.addAndGet(batch.size());
+            workers.execute(() -> batch.forEach(this::accountChanged));
+        }
+    }
+
+    public int getPendingUsers() {
+        return pendingUsers.get();
+    }
+
+    public long getUpdatedSessions() {
+        return updatedSessions.sum();
+    }
+
+    public long getEndedSessions() {
+        return endedSessions.sum();
+    }
+
+    public long getRefreshedUIs() {
+        return refreshedUIs.sum();
+    }
+
+    private void accountChanged(String username) {
+        try {
+            List<SessionRegistry.RegisteredSession> sessions = sessionRegistry.getSessions(username);
+            if (sessions.isEmpty()) {
+                return;
+            }
+            UserDetails user;
+            try {
+                user = userDetailsService.loadUserByUsername(username);
+            } catch (UsernameNotFoundException ex) {
+                user = null;
+            }
+            for (SessionRegistry.RegisteredSession session : sessions) {
+                if (user == null || !user.isEnabled()) {
+                    sessionRegistry.endSession(session);
+                    endedSessions.increment();
+                } else {
+                    update(session.getSession(), SessionAuthentication.of(user.getUsername(), user.getAuthorities()));
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not update the sessions of {}", username, ex);
+        } finally {
+            pendingUsers.decrementAndGet();
+        }
+    }
+
+    private void update(VaadinSession session, Authentication authentication) {
+        WrappedSession wrappedSession = session.getSession();
+        if (!(wrappedSession instanceof WrappedHttpSession)) {
+            return; // Closed meanwhile
+        }
+        HttpSession httpSession = ((WrappedHttpSession) wrappedSession).getHttpSession();
+        sessionPersistence.update(httpSession, authentication);
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(authentication);
+        session.access(() -> {
+            // The next request loads the new context from the HTTP session. Requests that are already running keep
+            // the old one, but do not write it back since they have not changed it.
+            try {
+                httpSession.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, context);
+            } catch (IllegalStateException ex) {
+                return; // Invalidated meanwhile
+            }
+            updatedSessions.increment();
+            for (UI ui : session.getUIs()) {
+                if (ui instanceof SecuredUI) {
+                    ui.access(() -> refresh((SecuredUI) ui, context));
+                }
+            }
+        });
+    }
+
+    private void refresh(SecuredUI ui, SecurityContext context) {
+        // The security context is bound to request threads by a filter, so it is bound here for the refresh only. This
+        // may run on the request thread of another UI of the session, which gets its own context back afterwards.
+        SecurityContext previous = SecurityContextHolder.getContext();
+        SecurityContextHolder.setContext(context);
+        try {
+            ui.refreshPermissions();
+            refreshedUIs.increment();
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+}
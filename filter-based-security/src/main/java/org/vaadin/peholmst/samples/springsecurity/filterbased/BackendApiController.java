@@ -0,0 +1,110 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * A REST API for the {@link BackendService}, for clients that are not browsers. A client posts its username and
+ * password to {@code /api/token} once and sends the returned token as a bearer token with its calls, see
+ * {@link ApiTokenService} and {@link ApiTokenFilter}. Many calls can be made in one request through
+ * {@code /api/batch}. No HTTP session is created.
+ */
+@RestController
+@RequestMapping("/api")
+public class BackendApiController {
+
+    static final String TOKEN_PATH = "/api/token";
+
+    @Autowired
+    ApiTokenService tokenService;
+
+    @Autowired
+    AuthenticationManager authenticationManager;
+
+    @Autowired
+    LoginThrottle loginThrottle;
+
+    @Autowired
+    BackendService backendService;
+
+    @Autowired
+    BackendBatch backendBatch;
+
+    @RequestMapping(value = "/token", method = RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> token(@RequestParam("username") String username,
+        @RequestParam("password") String password, HttpServletRequest request) {
+        // The same throttle as the login form, the password is checked just as expensively
+        if (!loginThrottle.tryAcquire(username, request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(error("throttled"));
+        }
+        Authentication authentication;
+        try {
+            authentication = authenticationManager
+                .authenticate(new UsernamePasswordAuthenticationToken(username, password));
+        } catch (AuthenticationException ex) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error("bad credentials"));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("token", tokenService.issue(authentication));
+        body.put("expiresIn", tokenService.getValiditySeconds());
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(body);
+    }
+
+    @RequestMapping(value = "/user-method", method = RequestMethod.GET)
+    public Map<String, Object> userMethod() {
+        return result(backendService.userMethod());
+    }
+
+    @RequestMapping(value = "/admin-method", method = RequestMethod.GET)
+    public Map<String, Object> adminMethod() {
+        return result(backendService.adminMethod());
+    }
+
+    /**
+     * Invokes the given operations, e.g. {@code ?operation=userMethod&operation=adminMethod}, in one request. See
+     * {@link BackendBatch}.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST)
+    public List<BackendBatch.Result> batch(@RequestParam("operation") List<String> operations,
+        @RequestParam(value = "parallelism", defaultValue = "1") int parallelism) {
+        return backendBatch.invoke(operations, parallelism);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> badRequest(IllegalArgumentException ex) {
+        return ResponseEntity.badRequest().body(error(ex.getMessage()));
+    }
+
+    @ExceptionHandler(AccessDeniedException.class)
+    public ResponseEntity<Map<String, Object>> accessDenied() {
+        // Answered here, as the error page is not part of the API and would redirect to the login page
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(error("access denied"));
+    }
+
+    private static Map<String, Object> result(Object result) {
+        return Collections.singletonMap("result", result);
+    }
+
+    private static Map<String, Object> error(String error) {
+        return Collections.singletonMap("error", error);
+    }
+}
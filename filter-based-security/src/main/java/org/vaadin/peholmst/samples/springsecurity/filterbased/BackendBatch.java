@@ -0,0 +1,242 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Invokes many {@link BackendService} methods in one call, e.g. for a bulk action in a UI or a batch request of a
+ * remote API. The current user is authorized once for every distinct set of {@link Secured} roles in the batch,
+ * through the {@link CompiledSecuredMethodInterceptor}, after which the methods are invoked on the service itself
+ * instead of through its security proxy. Operations the user may not invoke fail on their own; the rest of the batch
+ * is still run.
+ * <p>
+ * With a parallelism above one, up to that many threads, but no more than {@code backend.batch.max-parallelism}, run
+ * the operations: the calling thread and helpers from the {@link BackgroundExecutor}. The calling thread takes on any
+ * operation that no helper has started, so a batch completes even if no helper gets to run.
+ */
+@Component
+public class BackendBatch {
+
+    private final Map<String, Method> operations = new HashMap<>();
+
+    // Operations that require the same roles share one method that they are authorized with
+    private final Map<String, Method> authorizationMethods = new HashMap<>();
+
+    private final Timer batches = new Timer();
+
+    private final LongAdder invokedOperations = new LongAdder();
+
+    private final LongAdder deniedOperations = new LongAdder();
+
+    private final LongAdder authorizations = new LongAdder();
+
+    @Value("${backend.batch.max-operations:1000}")
+    private int maxOperations;
+
+    @Value("${backend.batch.max-parallelism:4}")
+    private int maxParallelism;
+
+    @Autowired
+    BackendService backendService;
+
+    @Autowired
+    CompiledSecuredMethodInterceptor methodSecurityInterceptor;
+
+    @Autowired
+    BackgroundExecutor backgroundExecutor;
+
+    private Object target;
+
+    @PostConstruct
+    void init() throws Exception {
+        // The proxy would check every operation again; BackendService has no advice other than method security
+        target = AopUtils.isAopProxy(backendService)
+            ? ((Advised) backendService).getTargetSource().getTarget() : backendService;
+        Map<List<ConfigAttribute>, Method> methodsByAttributes = new HashMap<>();
+        for (Method method : BackendService.class.getMethods()) {
+            if (method.isAnnotationPresent(Secured.class) && method.getParameterCount() == 0) {
+                List<ConfigAttribute> attributes = new ArrayList<>(
+                    methodSecurityInterceptor.getSecurityMetadataSource().getAttributes(method, BackendService.class));
+                operations.put(method.getName(), method);
+                authorizationMethods.put(method.getName(),
+                    methodsByAttributes.computeIfAbsent(attributes, a -> method));
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the operations that can be put in a batch.
+     */
+    public List<String> getOperations() {
+        List<String> names = new ArrayList<>(operations.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Invokes the {@link BackendService} methods with the given names as the current user and returns their results
+     * in the same order. A name may occur any number of times. Throws an {@link IllegalArgumentException} if a name is
+     * unknown or the batch has more than {@code backend.batch.max-operations} operations.
+     */
+    public List<Result> invoke(List<String> batch, int parallelism) {
+        if (batch.size() > maxOperations) {
+            throw new IllegalArgumentException("A batch can have at most " + maxOperations + " operations");
+        }
+        Method[] methods = new Method[batch.size()];
+        for (int i = 0; i < methods.length; ++i) {
+            methods[i] = operations.get(batch.get(i));
+            if (methods[i] == null) {
+                throw new IllegalArgumentException("BackendService has no secured method named " + batch.get(i));
+            }
+        }
+        Timer.Context timer = batches.time();
+        try {
+            Map<Method, Boolean> granted = new IdentityHashMap<>();
+            for (String name : batch) {
+                granted.computeIfAbsent(authorizationMethods.get(name), method -> {
+                    authorizations.increment();
+                    return methodSecurityInterceptor.isGranted(method, BackendService.class);
+                });
+            }
+            Result[] results = new Result[methods.length];
+            Runnable worker = createWorker(batch, methods, granted, results);
+            int threads = Math.min(Math.min(parallelism, maxParallelism), methods.length);
+            for (int i = 1; i < threads; ++i) {
+                // A rejected helper does not matter, its share is taken on by the others
+                backgroundExecutor.submit(() -> {
+                    worker.run();
+                    return null;
+                });
+            }
+            worker.run();
+            return Arrays.asList(results);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    public Timer getBatches() {
+        return batches;
+    }
+
+    public long getInvokedOperations() {
+        return invokedOperations.sum();
+    }
+
+    public long getDeniedOperations() {
+        return deniedOperations.sum();
+    }
+
+    public long getAuthorizations() {
+        return authorizations.sum();
+    }
+
+    /**
+     * Returns a worker that takes operations that have not been started yet until there are none left. The worker of
+     * the calling thread then waits for the operations that other workers are still running.
+     */
+    private Runnable createWorker(List<String> batch, Method[] methods, Map<Method, Boolean> granted,
+        Result[] results) {
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(methods.length);
+        Thread caller = Thread.currentThread();
+        return () -> {
+            for (int i = next.getAndIncrement(); i < methods.length; i = next.getAndIncrement()) {
+                String name = batch.get(i);
+                try {
+                    results[i] = granted.get(authorizationMethods.get(name)) ? invoke(name, methods[i]) : deny(name);
+                } finally {
+                    done.countDown(); // Also when the operation throws an error, so that the caller is not left waiting
+                }
+            }
+            if (Thread.currentThread() == caller) {
+                try {
+                    done.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the batch to complete", ex);
+                }
+            }
+        };
+    }
+
+    private Result invoke(String name, Method method) {
+        invokedOperations.increment();
+        try {
+            return new Result(name, method.invoke(target), null);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            return new Result(name, null, ex.getCause().getMessage());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Could not invoke " + method, ex);
+        }
+    }
+
+    private Result deny(String name) {
+        deniedOperations.increment();
+        return new Result(name, null, "Access is denied");
+    }
+
+    /**
+     * The outcome of one operation of a batch: either its return value or an error message.
+     */
+    public static final class Result {
+
+        private final String operation;
+
+        private final Object value;
+
+        private final String error;
+
+        Result(String operation, Object value, String error) {
+            this.operation = operation;
+            this.value = value;
+            this.error = error;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": " + (error == null ? value : error);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells whether the current user may invoke a {@link BackendService} method, without invoking it. This makes it
+ * possible to disable actions up front and to reject calls without going through an
+ * {@link org.springframework.security.access.AccessDeniedException}.
+ */
+@Component
+public class BackendPermissions {
+
+    private final Map<String, Method> securedMethods = new HashMap<>();
+
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    private final LongAdder exceptionDenials = new LongAdder();
+
+    @Autowired
+    CompiledSecuredMethodInterceptor methodSecurityInterceptor;
+
+    public BackendPermissions() {
+        for (Method method : BackendService.class.getMethods()) {
+            if (method.isAnnotationPresent(Secured.class)) {
+                securedMethods.put(method.getName(), method);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the current user can invoke the {@link BackendService} method with the given name.
+     */
+    public boolean canInvoke(String methodName) {
+        Method method = securedMethods.get(methodName);
+        if (method == null) {
+            throw new IllegalArgumentException("BackendService has no secured method named " + methodName);
+        }
+        return methodSecurityInterceptor.isGranted(method, BackendService.class);
+    }
+
+    /**
+     * Like {@link #canInvoke(String)}, but counts the call as rejected if the user can not invoke the method.
+     */
+    public boolean checkInvoke(String methodName) {
+        boolean granted = canInvoke(methodName);
+        if (!granted) {
+            rejectedCalls.increment();
+        }
+        return granted;
+    }
+
+    /**
+     * Records a denied call that was not caught by {@link #checkInvoke(String)} but ended up as an exception.
+     */
+    public void recordExceptionDenial() {
+        exceptionDenials.increment();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    public long getExceptionDenials() {
+        return exceptionDenials.sum();
+    }
+}
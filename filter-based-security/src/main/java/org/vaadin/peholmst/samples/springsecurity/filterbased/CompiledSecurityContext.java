@@ -0,0 +1,84 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+/**
+ * A {@link org.springframework.security.core.context.SecurityContext} that compiles the authorities of its
+ * authentication once when the authentication is set, so that {@link #hasAuthority(String)} does not allocate.
+ * Authenticated users are kept in their compact {@link SessionAuthentication} form, since the context ends up in the
+ * session.
+ *
+ * @see CompiledAuthorities
+ */
+public class CompiledSecurityContext extends SecurityContextImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    // The authentication and its mask are replaced together, so that readers never see the mask of another user. The
+    // bit indexes are assigned per JVM, so the mask is recompiled after deserialization.
+    private transient volatile Snapshot snapshot = new Snapshot(null, 0L);
+
+    @Override
+    public void setAuthentication(Authentication authentication) {
+        authentication = SessionAuthentication.compact(authentication);
+        super.setAuthentication(authentication); // Only kept for serialization
+        snapshot = new Snapshot(authentication, CompiledAuthorities.compile(authentication));
+    }
+
+    @Override
+    public Authentication getAuthentication() {
+        return snapshot.getAuthentication();
+    }
+
+    /**
+     * Returns the current authentication together with its compiled authorities.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the compiled authorities, see {@link CompiledAuthorities#compile(Authentication)}.
+     */
+    public long getAuthorityMask() {
+        return snapshot.getAuthorityMask();
+    }
+
+    public boolean hasAuthority(String authority) {
+        Snapshot current = snapshot;
+        return CompiledAuthorities.hasAuthority(current.getAuthorityMask(), current.getAuthentication(), authority);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Authentication authentication = super.getAuthentication();
+        snapshot = new Snapshot(authentication, CompiledAuthorities.compile(authentication));
+    }
+
+    /**
+     * An authentication and the mask compiled from its authorities.
+     */
+    public static final class Snapshot {
+
+        private final Authentication authentication;
+
+        private final long authorityMask;
+
+        Snapshot(Authentication authentication, long authorityMask) {
+            this.authentication = authentication;
+            this.authorityMask = authorityMask;
+        }
+
+        public Authentication getAuthentication() {
+            return authentication;
+        }
+
+        public long getAuthorityMask() {
+            return authorityMask;
+        }
+    }
+}
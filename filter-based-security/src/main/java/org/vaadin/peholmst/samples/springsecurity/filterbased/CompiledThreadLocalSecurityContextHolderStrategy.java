@@ -0,0 +1,42 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+
+/**
+ * A thread-local {@link SecurityContextHolderStrategy} that creates {@link CompiledSecurityContext}s. The
+ * {@link org.springframework.security.web.context.HttpSessionSecurityContextRepository} creates new contexts through
+ * the strategy, so the contexts stored in the HTTP session are compiled as well.
+ */
+public class CompiledThreadLocalSecurityContextHolderStrategy implements SecurityContextHolderStrategy {
+
+    private static final ThreadLocal<SecurityContext> CONTEXT_HOLDER = new ThreadLocal<>();
+
+    @Override
+    public void clearContext() {
+        CONTEXT_HOLDER.remove();
+    }
+
+    @Override
+    public SecurityContext getContext() {
+        SecurityContext context = CONTEXT_HOLDER.get();
+        if (context == null) {
+            context = createEmptyContext();
+            CONTEXT_HOLDER.set(context);
+        }
+        return context;
+    }
+
+    @Override
+    public void setContext(SecurityContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Only non-null SecurityContext instances are permitted");
+        }
+        CONTEXT_HOLDER.set(context);
+    }
+
+    @Override
+    public SecurityContext createEmptyContext() {
+        return new CompiledSecurityContext();
+    }
+}
@@ -1,16 +1,50 @@
 package org.vaadin.peholmst.samples.springsecurity.filterbased;
 
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 
+import org.atmosphere.cpr.ApplicationConfig;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
 import com.vaadin.server.CustomizedSystemMessages;
+import com.vaadin.server.DeploymentConfiguration;
+import com.vaadin.server.ServiceException;
 import com.vaadin.server.SystemMessagesProvider;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.shared.ApplicationConstants;
 import com.vaadin.spring.server.SpringVaadinServlet;
+import com.vaadin.spring.server.SpringVaadinServletService;
 
 @Component("vaadinServlet")
 public class CustomServlet extends SpringVaadinServlet {
 
+    @Autowired
+    SecurityMetrics securityMetrics;
+
+    @Autowired
+    SessionFootprintEndpoint sessionFootprint;
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
+    @Override
+    public void init(ServletConfig servletConfig) throws ServletException {
+        super.init(withSecurityInterceptor(servletConfig));
+    }
+
     @Override
     protected void servletInitialized() throws ServletException {
         super.servletInitialized();
@@ -24,5 +58,79 @@ public class CustomServlet extends SpringVaadinServlet {
             messages.setCommunicationErrorNotificationEnabled(false);
             return messages;
         });
+        getService().addSessionInitListener(event -> securityMetrics.sessionCreated());
+        getService().addSessionDestroyListener(event -> securityMetrics.sessionDestroyed());
+        getService().addSessionInitListener(event -> sessionFootprint.sessionCreated(event.getSession()));
+        getService().addSessionDestroyListener(event -> sessionFootprint.sessionDestroyed(event.getSession()));
+        getService().addSessionInitListener(event -> {
+            sessionRegistry.sessionCreated(event.getSession());
+            // The user has already logged in on the login page when the Vaadin session is created
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null) {
+                sessionRegistry.sessionAuthenticated(event.getSession(), authentication.getName());
+            }
+        });
+        getService().addSessionDestroyListener(event -> sessionRegistry.sessionDestroyed(event.getSession()));
+    }
+
+    @Override
+    protected VaadinServletService createServletService(DeploymentConfiguration deploymentConfiguration)
+        throws ServiceException {
+        SpringVaadinServletService service = new SpringVaadinServletService(this, deploymentConfiguration,
+            getServiceUrlPath()) {
+            @Override
+            public void requestEnd(VaadinRequest request, VaadinResponse response, VaadinSession session) {
+                // Heartbeats only tell that the browser is still open, not that the user is doing anything
+                if (session != null && !isHeartbeatRequest(request)) {
+                    sessionRegistry.sessionAccessed(session);
+                }
+                super.requestEnd(request, response, session);
+            }
+        };
+        service.init();
+        return service;
+    }
+
+    /**
+     * Returns the given servlet configuration with the {@link WebSocketSecurityInterceptor} added to the Atmosphere
+     * interceptors.
+     */
+    static ServletConfig withSecurityInterceptor(ServletConfig servletConfig) {
+        // Atmosphere only takes its interceptors from the init parameters of the servlet, which are set up by the
+        // Vaadin Spring Boot integration
+        return new ServletConfig() {
+            @Override
+            public String getServletName() {
+                return servletConfig.getServletName();
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return servletConfig.getServletContext();
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                String value = servletConfig.getInitParameter(name);
+                if (!ApplicationConfig.ATMOSPHERE_INTERCEPTORS.equals(name)) {
+                    return value;
+                }
+                // Added to the interceptors that have been configured, e.g. through vaadin.servlet.params
+                String interceptor = WebSocketSecurityInterceptor.class.getName();
+                return value == null || value.trim().isEmpty() ? interceptor : value + "," + interceptor;
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                Set<String> names = new HashSet<>(Collections.list(servletConfig.getInitParameterNames()));
+                names.add(ApplicationConfig.ATMOSPHERE_INTERCEPTORS);
+                return Collections.enumeration(names);
+            }
+        };
+    }
+
+    private static boolean isHeartbeatRequest(VaadinRequest request) {
+        String pathInfo = request.getPathInfo();
+        return pathInfo != null && pathInfo.startsWith("/" + ApplicationConstants.HEARTBEAT_PATH + "/");
     }
 }
@@ -1,44 +1,120 @@
 package org.vaadin.peholmst.samples.springsecurity.filterbased;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.SavedRequestAwareAuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.context.SecurityContextPersistenceFilter;
+import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
+import org.springframework.security.web.header.writers.DelegatingRequestMatcherHeaderWriter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.NegatedRequestMatcher;
 
 @SpringBootApplication
 public class FilterBasedSecuritySampleApplication {
 
     @Configuration
     @EnableWebSecurity
-    @EnableGlobalMethodSecurity(securedEnabled = true)
     public static class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
+        @Autowired
+        PasswordUpgradingAuthenticationProvider authenticationProvider;
+
+        @Autowired
+        LoginThrottle loginThrottle;
+
+        @Autowired
+        SessionPersistence sessionPersistence;
+
+        @Autowired
+        @Lazy // The metrics depend on the method security interceptor, which must not be created this early
+        SecurityMetrics securityMetrics;
+
         @Override
         protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-            //@formatter:off
-            auth
-                .inMemoryAuthentication()
-                    .withUser("admin").password("p").roles("ADMIN")
-                    .and()
-                    .withUser("user").password("p").roles("USER");
-            //@formatter:on
+            auth.authenticationProvider(authenticationProvider);
+        }
+
+        @Bean
+        @Override
+        public AuthenticationManager authenticationManagerBean() throws Exception {
+            return timed(super.authenticationManagerBean()); // Used for the tokens of the REST API
+        }
+
+        @Override
+        protected AuthenticationManager authenticationManager() throws Exception {
+            // Time all authentications, including the ones made by the login form
+            return timed(super.authenticationManager());
+        }
+
+        private AuthenticationManager timed(AuthenticationManager authenticationManager) {
+            return authentication -> {
+                long start = System.nanoTime();
+                try {
+                    Authentication result = authenticationManager.authenticate(authentication);
+                    securityMetrics.recordAuthentication(System.nanoTime() - start, true);
+                    return result;
+                } catch (AuthenticationException ex) {
+                    securityMetrics.recordAuthentication(System.nanoTime() - start, false);
+                    throw ex;
+                }
+            };
         }
 
         @Override
         protected void configure(HttpSecurity http) throws Exception {
+            AuthenticationSuccessHandler successHandler = new SavedRequestAwareAuthenticationSuccessHandler();
             //@formatter:off
             http
                 .csrf().disable() // Use Vaadin's CSRF protection
-                .authorizeRequests().anyRequest().authenticated() // User must be authenticated to access any part of the application
+                .authorizeRequests()
+                    .antMatchers("/manage/**").hasRole("ADMIN") // Actuator endpoints, see management.context-path
+                    .antMatchers("/login").permitAll() // Login page with any parameter, such as ?throttled
+                    .anyRequest().authenticated() // User must be authenticated to access any part of the application
                 .and()
                 .formLogin().loginPage("/login").permitAll() // Login page is accessible to anybody
+                    .successHandler((request, response, authentication) -> {
+                        // Store the user for the other nodes before being redirected to the application
+                        sessionPersistence.issue(authentication, request, response);
+                        successHandler.onAuthenticationSuccess(request, response, authentication);
+                    })
                 .and()
+                // Users that logged in on another node are restored before anything else looks at the context
+                .addFilterAfter(new SessionRestoringFilter(sessionPersistence), SecurityContextPersistenceFilter.class)
+                // Reject login floods before any passwords are checked
+                .addFilterBefore(new LoginThrottleFilter(loginThrottle), UsernamePasswordAuthenticationFilter.class)
                 .logout().logoutUrl("/logout").logoutSuccessUrl("/login?logged-out").permitAll() // Logout success page is accessible to anybody
+                    .addLogoutHandler((request, response, authentication) -> {
+                        // Runs before the session is invalidated
+                        sessionPersistence.discard(request.getSession(false));
+                        sessionPersistence.clearCookie(request, response);
+                    })
+                .and()
+                .headers()
+                    // The login page is cached and revalidated with its ETag, everything else must not be stored
+                    .cacheControl().disable()
+                    .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(
+                        new NegatedRequestMatcher(new AntPathRequestMatcher("/login", "GET")),
+                        new CacheControlHeadersWriter()))
                 .and()
                 .sessionManagement().sessionFixation().newSession(); // Create completely new session
             //@formatter:on
@@ -48,6 +124,68 @@ public class FilterBasedSecuritySampleApplication {
         public void configure(WebSecurity web) throws Exception {
             web.ignoring().antMatchers("/css/*"); // Static resources are ignored
         }
+
+        static {
+            // Use a custom SecurityContextHolderStrategy that compiles the authorities of the user
+            SecurityContextHolder.setStrategyName(CompiledThreadLocalSecurityContextHolderStrategy.class.getName());
+        }
+    }
+
+    @Configuration
+    @Order(99) // Before the SecurityConfiguration, which has the default order of 100
+    @ConditionalOnProperty(name = "security.fast-path.enabled", matchIfMissing = true)
+    public static class VaadinFastPathConfiguration extends WebSecurityConfigurerAdapter {
+
+        public VaadinFastPathConfiguration() {
+            super(true); // None of the default filters
+        }
+
+        @Override
+        protected void configure(HttpSecurity http) throws Exception {
+            VaadinFastPathFilter fastPathFilter = new VaadinFastPathFilter();
+            // Heartbeats, UIDL and push requests of authenticated sessions only need their security context bound
+            http.requestMatcher(fastPathFilter).addFilterBefore(fastPathFilter, SecurityContextPersistenceFilter.class);
+        }
+    }
+
+    @Configuration
+    @Order(98) // Before the VaadinFastPathConfiguration and the SecurityConfiguration
+    public static class ApiSecurityConfiguration extends WebSecurityConfigurerAdapter {
+
+        @Autowired
+        ApiTokenService tokenService;
+
+        public ApiSecurityConfiguration() {
+            super(true); // None of the default filters, nothing is kept in a session
+        }
+
+        @Override
+        protected void configure(HttpSecurity http) throws Exception {
+            // The REST API only needs the user of the token bound, the backend checks the rest
+            http.antMatcher("/api/**")
+                .addFilterBefore(new ApiTokenFilter(tokenService), SecurityContextPersistenceFilter.class);
+        }
+    }
+
+    @Bean
+    public FilterRegistrationBean securityOverheadStart(SecurityOverheadProbe probe) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(probe.createStartFilter());
+        registration.setName("securityOverheadStart");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
+    }
+
+    @Bean
+    public FilterRegistrationBean securityOverheadEnd(SecurityOverheadProbe probe) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(probe.createEndFilter());
+        registration.setName("securityOverheadEnd");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return registration;
+    }
+
+    @Configuration
+    @EnableGlobalMethodSecurity(securedEnabled = true)
+    public static class MethodSecurityConfiguration extends CompiledMethodSecurityConfiguration {
     }
 
     public static void main(String[] args) {
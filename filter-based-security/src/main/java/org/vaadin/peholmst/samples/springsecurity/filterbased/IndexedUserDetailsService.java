@@ -0,0 +1,221 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.UserStore.StoredUser;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Looks up users in a memory-mapped {@link UserStore}, with a bounded cache of recently and frequently used users in
+ * front of it.
+ * <p>
+ * The store is (re)built at startup from the {@code users.store.seed} accounts and {@code users.store.generated-users}
+ * generated accounts, but only if the existing file was built from something else. Their passwords are hashed with
+ * the {@link AdaptivePasswordEncoder} while the store is built. The cache holds the immutable stored users and every
+ * lookup returns a new {@link UserDetails}, since Spring Security erases the password of the user that it has
+ * authenticated.
+ * <p>
+ * The records in the store can not grow, so changes to the authorities or the enabled flag of an account are kept in
+ * memory on top of the store, until the store is rebuilt from the changed source. The password is always read from the
+ * store, so that upgraded hashes take effect for changed accounts too.
+ */
+@Component
+public class IndexedUserDetailsService implements UserDetailsService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexedUserDetailsService.class);
+
+    @Autowired
+    AdaptivePasswordEncoder passwordEncoder;
+
+    @Value("${users.store.path}")
+    private String path;
+
+    // Comma separated accounts in the form username:password:AUTHORITY AUTHORITY...
+    @Value("${users.store.seed:}")
+    private String[] seed;
+
+    @Value("${users.store.generated-users:0}")
+    private int generatedUsers;
+
+    @Value("${users.cache.size:10000}")
+    private long cacheSize;
+
+    private UserStore store;
+
+    private Cache<String, StoredUser> cache;
+
+    private final Map<String, AccountChange> changedAccounts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() throws IOException {
+        Path file = Paths.get(path);
+        long fingerprint = fingerprint();
+        if (Files.exists(file)) {
+            store = UserStore.open(file);
+        }
+        if (store == null || store.getFingerprint() != fingerprint) {
+            LOGGER.info("Building user store {}", file);
+            UserStore.write(file, fingerprint, this::users);
+            store = UserStore.open(file);
+        }
+        LOGGER.info("Opened user store {} with {} users", file, store.size());
+        cache = Caffeine.newBuilder().maximumSize(cacheSize).recordStats().build();
+        SessionAuthentication.setUserDetailsService(this);
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        StoredUser user = findUser(username.toLowerCase(Locale.ROOT));
+        if (user == null) {
+            throw new UsernameNotFoundException(username);
+        }
+        return new User(user.getUsername(), user.getPassword(), user.isEnabled(), true, true, true,
+            user.getAuthorities());
+    }
+
+    /**
+     * Replaces the encoded passwords of the given users, see {@link UserStore#updatePasswords(Map)}. Returns the
+     * number of replaced passwords.
+     */
+    public int updatePasswords(Map<String, String> encodedPasswords) {
+        int updated = store.updatePasswords(encodedPasswords);
+        cache.invalidateAll(encodedPasswords.keySet());
+        return updated;
+    }
+
+    /**
+     * Replaces the authorities of the given account. Existing sessions of the user are not affected, see
+     * {@link AuthorityRevocation}.
+     */
+    public void updateAuthorities(String username, String... authorities) {
+        changeAccount(username, user -> new AccountChange(user.isEnabled(), authorities));
+    }
+
+    /**
+     * Enables or disables the given account. Existing sessions of the user are not affected, see
+     * {@link AuthorityRevocation}.
+     */
+    public void setEnabled(String username, boolean enabled) {
+        changeAccount(username, user -> new AccountChange(enabled,
+            user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toArray(String[]::new)));
+    }
+
+    public int getUserCount() {
+        return store.size();
+    }
+
+    public long getCachedUserCount() {
+        return cache.estimatedSize();
+    }
+
+    public double getCacheHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    private void changeAccount(String username, Function<StoredUser, AccountChange> change) {
+        String key = username.toLowerCase(Locale.ROOT);
+        StoredUser user = findUser(key);
+        if (user == null) {
+            throw new UsernameNotFoundException(username);
+        }
+        changedAccounts.put(key, change.apply(user));
+        cache.invalidate(key);
+    }
+
+    private StoredUser findUser(String key) {
+        // Unknown usernames are not cached, so guessing them can not push real users out of the cache
+        return cache.get(key, this::loadUser);
+    }
+
+    private StoredUser loadUser(String key) {
+        StoredUser user = store.find(key);
+        AccountChange change = changedAccounts.get(key);
+        return user == null || change == null ? user
+            : new StoredUser(user.getUsername(), user.getPassword(), change.enabled, change.authorities);
+    }
+
+    private long fingerprint() {
+        // Stores written before the passwords were hashed must be rebuilt
+        long fingerprint = "bcrypt".hashCode() * 31L + generatedUsers;
+        for (String account : seed) {
+            fingerprint = fingerprint * 31 + account.hashCode();
+        }
+        return fingerprint;
+    }
+
+    private Iterator<StoredUser> users() {
+        List<StoredUser> seedUsers = new ArrayList<>(seed.length);
+        for (String account : seed) {
+            String[] fields = account.trim().split(":", 3);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Invalid seed account: " + account);
+            }
+            seedUsers.add(new StoredUser(fields[0], passwordEncoder.encode(fields[1]), true,
+                fields[2].trim().split("\\s+")));
+        }
+        Iterator<StoredUser> seedIterator = seedUsers.iterator();
+        // Hashing a million passwords would take hours, so all generated users share the same hash
+        String generatedPassword = generatedUsers > 0 ? passwordEncoder.encode("p") : null;
+        // The generated users are created one at a time while the store is written
+        return new Iterator<StoredUser>() {
+
+            private int generated;
+
+            @Override
+            public boolean hasNext() {
+                return seedIterator.hasNext() || generated < generatedUsers;
+            }
+
+            @Override
+            public StoredUser next() {
+                if (seedIterator.hasNext()) {
+                    return seedIterator.next();
+                }
+                if (generated == generatedUsers) {
+                    throw new NoSuchElementException();
+                }
+                return new StoredUser("user" + ++generated, generatedPassword, true, "ROLE_USER");
+            }
+        };
+    }
+
+    /**
+     * The parts of an account that have been changed since the store was built.
+     */
+    private static final class AccountChange {
+
+        final boolean enabled;
+
+        final String[] authorities;
+
+        AccountChange(boolean enabled, String[] authorities) {
+            this.enabled = enabled;
+            this.authorities = authorities;
+        }
+    }
+}
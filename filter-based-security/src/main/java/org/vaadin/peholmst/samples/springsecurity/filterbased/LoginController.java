@@ -1,34 +1,44 @@
 package org.vaadin.peholmst.samples.springsecurity.filterbased;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.servlet.ModelAndView;
 
 /**
- * This is how we handle our custom login screen. It has nothing to do with Vaadin at all.
+ * This is how we handle our custom login screen. It has nothing to do with Vaadin at all. The page is rendered once
+ * per combination of messages, see {@link LoginPageCache}; a browser that already has it only gets a 304 response.
  */
 @Controller
 public class LoginController {
 
     @Autowired
-    ServerProperties serverProperties;
+    LoginPageCache loginPageCache;
 
     @RequestMapping(value = "/login", method = RequestMethod.GET)
-    public ModelAndView login(@RequestParam(value = "error", required = false) String error,
-        @RequestParam(value = "logged-out", required = false) String loggedOut) {
-        ModelAndView modelAndView = new ModelAndView();
+    public ResponseEntity<byte[]> login(@RequestParam(value = "error", required = false) String error,
+        @RequestParam(value = "logged-out", required = false) String loggedOut,
+        @RequestParam(value = "throttled", required = false) String throttled) {
+        int messages = 0;
         if (error != null) {
-            modelAndView.addObject("error", true);
+            messages |= LoginPageCache.ERROR;
+        }
+        if (throttled != null) {
+            messages |= LoginPageCache.THROTTLED;
         }
         if (loggedOut != null) {
-            modelAndView.addObject("loggedOut", true);
+            messages |= LoginPageCache.LOGGED_OUT;
         }
-        modelAndView.addObject("contextPath", serverProperties.getContextPath());
-        modelAndView.setViewName("login");
-        return modelAndView;
+        LoginPageCache.RenderedPage page = loginPageCache.getPage(messages);
+        // The ETag turns conditional requests into 304 responses before the body is written
+        return ResponseEntity.ok()
+            .eTag(page.getEtag())
+            .cacheControl(CacheControl.noCache())
+            .contentType(new MediaType("text", "html", page.getCharset()))
+            .body(page.getContent());
     }
 }
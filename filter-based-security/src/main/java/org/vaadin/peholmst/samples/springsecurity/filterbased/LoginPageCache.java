@@ -0,0 +1,160 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.velocity.VelocityProperties;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.ui.velocity.VelocityEngineUtils;
+
+/**
+ * Renders the login page once per combination of messages and keeps the result as bytes, together with an ETag of
+ * the content. The template is checked for changes at most once per second; when it has changed, all variants are
+ * rendered again on their next request.
+ */
+@Component
+public class LoginPageCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginPageCache.class);
+
+    private static final String VIEW_NAME = "login";
+
+    private static final long TEMPLATE_CHECK_INTERVAL_MS = 1000;
+
+    public static final int ERROR = 1;
+
+    public static final int THROTTLED = 2;
+
+    public static final int LOGGED_OUT = 4;
+
+    // One slot per combination of the message flags
+    private final AtomicReferenceArray<RenderedPage> pages = new AtomicReferenceArray<>(8);
+
+    private final LongAdder renderedPages = new LongAdder();
+
+    @Autowired
+    VelocityEngine velocityEngine;
+
+    @Autowired
+    VelocityProperties velocityProperties;
+
+    @Autowired
+    ServerProperties serverProperties;
+
+    @Autowired
+    ResourceLoader resourceLoader;
+
+    private volatile long nextTemplateCheck;
+
+    private volatile long templateLastModified;
+
+    /**
+     * Returns the login page with the given messages, see {@link #ERROR}, {@link #THROTTLED} and {@link #LOGGED_OUT}.
+     */
+    public RenderedPage getPage(int messages) {
+        checkTemplate();
+        RenderedPage page = pages.get(messages);
+        if (page == null) {
+            // Rendering the same variant twice during a burst is harmless, the results are identical
+            page = render(messages);
+            pages.set(messages, page);
+        }
+        return page;
+    }
+
+    public long getRenderedPages() {
+        return renderedPages.sum();
+    }
+
+    private void checkTemplate() {
+        long now = System.currentTimeMillis();
+        if (now < nextTemplateCheck) {
+            return;
+        }
+        nextTemplateCheck = now + TEMPLATE_CHECK_INTERVAL_MS;
+        Resource template = resourceLoader.getResource(
+            velocityProperties.getResourceLoaderPath() + velocityProperties.getPrefix() + VIEW_NAME
+                + velocityProperties.getSuffix());
+        long lastModified;
+        try {
+            lastModified = template.lastModified();
+        } catch (IOException ex) {
+            LOGGER.warn("Could not check the login page template {}", template, ex);
+            return;
+        }
+        if (lastModified != templateLastModified) {
+            templateLastModified = lastModified;
+            for (int i = 0; i < pages.length(); ++i) {
+                pages.set(i, null);
+            }
+        }
+    }
+
+    private RenderedPage render(int messages) {
+        Map<String, Object> model = new HashMap<>();
+        if ((messages & ERROR) != 0) {
+            model.put("error", true);
+        }
+        if ((messages & THROTTLED) != 0) {
+            model.put("throttled", true);
+        }
+        if ((messages & LOGGED_OUT) != 0) {
+            model.put("loggedOut", true);
+        }
+        model.put("contextPath", serverProperties.getContextPath());
+        Charset charset = velocityProperties.getCharset();
+        String html = VelocityEngineUtils.mergeTemplateIntoString(velocityEngine,
+            velocityProperties.getPrefix() + VIEW_NAME + velocityProperties.getSuffix(), charset.name(), model);
+        renderedPages.increment();
+        return new RenderedPage(html.getBytes(charset), charset);
+    }
+
+    /**
+     * A rendered variant of the login page, ready to be written.
+     */
+    public static final class RenderedPage {
+
+        private final byte[] content;
+
+        private final Charset charset;
+
+        private final String etag;
+
+        RenderedPage(byte[] content, Charset charset) {
+            this.content = content;
+            this.charset = charset;
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+                etag = '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 27) + '"';
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
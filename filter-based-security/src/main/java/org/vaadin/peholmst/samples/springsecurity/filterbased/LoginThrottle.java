@@ -0,0 +1,195 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the rate of login attempts before any password is checked. Every attempt takes a token from the bucket of
+ * its client address, the bucket of its username and a global bucket, and is rejected if any of them is empty. The
+ * tokens already taken by a rejected attempt are put back, so attempts that are rejected for their address do not use
+ * up the attempts of the username they target.
+ * <p>
+ * The per-key buckets are striped: keys are hashed onto a fixed number of buckets, so memory stays the same no matter
+ * how many distinct usernames or addresses are seen. Keys that share a stripe also share its tokens, which only makes
+ * the throttle stricter. The hashes are seeded per node, so colliding keys can not be precomputed. Each bucket is a
+ * single {@code long} that is updated with compare-and-set, so the throttle never blocks.
+ */
+@Component
+public class LoginThrottle {
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder rejectedByUsername = new LongAdder();
+
+    private final LongAdder rejectedByAddress = new LongAdder();
+
+    private final LongAdder rejectedGlobally = new LongAdder();
+
+    @Value("${login.throttle.enabled:true}")
+    private boolean enabled;
+
+    @Value("${login.throttle.stripes:65536}")
+    private int stripes;
+
+    @Value("${login.throttle.username.burst:5}")
+    private int usernameBurst;
+
+    @Value("${login.throttle.username.per-second:0.1}")
+    private double usernamePerSecond;
+
+    @Value("${login.throttle.address.burst:20}")
+    private int addressBurst;
+
+    @Value("${login.throttle.address.per-second:1}")
+    private double addressPerSecond;
+
+    @Value("${login.throttle.global.burst:200}")
+    private int globalBurst;
+
+    @Value("${login.throttle.global.per-second:100}")
+    private double globalPerSecond;
+
+    private TokenBuckets usernameBuckets;
+
+    private TokenBuckets addressBuckets;
+
+    private TokenBuckets globalBucket;
+
+    @PostConstruct
+    void init() {
+        usernameBuckets = new TokenBuckets(stripes, usernameBurst, usernamePerSecond);
+        addressBuckets = new TokenBuckets(stripes, addressBurst, addressPerSecond);
+        globalBucket = new TokenBuckets(1, globalBurst, globalPerSecond);
+    }
+
+    /**
+     * Takes a token for a login attempt with the given username from the given client address. Returns false if the
+     * attempt should be rejected without checking the password.
+     */
+    public boolean tryAcquire(String username, String address) {
+        if (!enabled) {
+            return true;
+        }
+        long now = now();
+        int addressStripe = addressBuckets.stripe(address);
+        if (!addressBuckets.tryAcquire(addressStripe, now)) {
+            rejectedByAddress.increment();
+            return false;
+        }
+        int usernameStripe = usernameBuckets.stripe(username);
+        if (!usernameBuckets.tryAcquire(usernameStripe, now)) {
+            addressBuckets.release(addressStripe);
+            rejectedByUsername.increment();
+            return false;
+        }
+        if (!globalBucket.tryAcquire(0, now)) {
+            usernameBuckets.release(usernameStripe);
+            addressBuckets.release(addressStripe);
+            rejectedGlobally.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getRejectedByUsername() {
+        return rejectedByUsername.sum();
+    }
+
+    public long getRejectedByAddress() {
+        return rejectedByAddress.sum();
+    }
+
+    public long getRejectedGlobally() {
+        return rejectedGlobally.sum();
+    }
+
+    private long now() {
+        // Never zero, since a zero bucket means that the bucket has not been used yet
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + 1;
+    }
+
+    /**
+     * A fixed number of token buckets. Each bucket packs the time of its last update in milliseconds into the upper
+     * 40 bits and its tokens in thousandths into the lower 24 bits.
+     */
+    private static final class TokenBuckets {
+
+        private static final int TOKEN_BITS = 24;
+
+        private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+
+        private static final long ONE_TOKEN = 1000;
+
+        private final AtomicLongArray buckets;
+
+        private final long seed = ThreadLocalRandom.current().nextLong();
+
+        private final long capacity;
+
+        private final double refillPerMilli;
+
+        TokenBuckets(int stripes, int burst, double perSecond) {
+            if (Integer.bitCount(stripes) != 1) {
+                throw new IllegalArgumentException("The number of stripes must be a power of two");
+            }
+            if (burst < 1 || burst * ONE_TOKEN > TOKEN_MASK) {
+                throw new IllegalArgumentException("The burst must be between 1 and " + TOKEN_MASK / ONE_TOKEN);
+            }
+            buckets = new AtomicLongArray(stripes);
+            capacity = burst * ONE_TOKEN;
+            refillPerMilli = perSecond; // Thousandths of a token per millisecond
+        }
+
+        boolean tryAcquire(int stripe, long now) {
+            while (true) {
+                long bucket = buckets.get(stripe);
+                long time = now;
+                long tokens = capacity;
+                if (bucket != 0) {
+                    // Another thread may have read the clock later but updated the bucket first
+                    time = Math.max(now, bucket >>> TOKEN_BITS);
+                    long elapsed = time - (bucket >>> TOKEN_BITS);
+                    tokens = (long) Math.min(capacity, (bucket & TOKEN_MASK) + elapsed * refillPerMilli);
+                }
+                if (tokens < ONE_TOKEN) {
+                    return false;
+                }
+                if (buckets.compareAndSet(stripe, bucket, (time << TOKEN_BITS) | (tokens - ONE_TOKEN))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Puts back a token taken by {@link #tryAcquire(int, long)}, without going over the capacity of the bucket.
+         */
+        void release(int stripe) {
+            while (true) {
+                long bucket = buckets.get(stripe);
+                long tokens = Math.min(capacity, (bucket & TOKEN_MASK) + ONE_TOKEN);
+                if (buckets.compareAndSet(stripe, bucket, (bucket & ~TOKEN_MASK) | tokens)) {
+                    return;
+                }
+            }
+        }
+
+        int stripe(String key) {
+            // Seeded FNV-1a over the lower case characters, so that keys differing in case share a bucket
+            long hash = seed;
+            for (int i = 0; key != null && i < key.length(); ++i) {
+                hash = (hash ^ Character.toLowerCase(key.charAt(i))) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return (int) hash & (buckets.length() - 1);
+        }
+    }
+}
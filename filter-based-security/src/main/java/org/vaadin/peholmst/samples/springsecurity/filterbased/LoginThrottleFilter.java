@@ -0,0 +1,39 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Rejects login form posts that exceed the {@link LoginThrottle} limits before they reach the
+ * {@link org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter}, so that no password
+ * is checked for them. Rejected users are sent back to the login page.
+ */
+public class LoginThrottleFilter extends OncePerRequestFilter {
+
+    private final RequestMatcher loginRequestMatcher = new AntPathRequestMatcher("/login", "POST");
+
+    private final LoginThrottle loginThrottle;
+
+    public LoginThrottleFilter(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        if (loginRequestMatcher.matches(request)
+            && !loginThrottle.tryAcquire(request.getParameter("username"), request.getRemoteAddr())) {
+            response.sendRedirect(request.getContextPath() + "/login?throttled");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,41 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+/**
+ * Authenticates against the {@link IndexedUserDetailsService} and, once a password has been verified, requests weak
+ * hashes of it to be replaced by the {@link PasswordRehashQueue}.
+ */
+@Component
+public class PasswordUpgradingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    @Autowired
+    IndexedUserDetailsService userDetailsService;
+
+    @Autowired
+    AdaptivePasswordEncoder passwordEncoder;
+
+    @Autowired
+    PasswordRehashQueue rehashQueue;
+
+    @PostConstruct
+    void init() {
+        setUserDetailsService(userDetailsService);
+        setPasswordEncoder(passwordEncoder);
+    }
+
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+        UserDetails user) {
+        if (passwordEncoder.upgradeEncoding(user.getPassword())) {
+            rehashQueue.submit(user.getUsername(), authentication.getCredentials().toString());
+        }
+        return super.createSuccessAuthentication(principal, authentication, user);
+    }
+}
@@ -0,0 +1,173 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Timer;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Sends periodic server push updates to all registered UIs from one shared scheduler. The UIs are updated in
+ * batches on a small, bounded worker pool, so the number of threads does not grow with the number of open UIs.
+ */
+@Component
+public class PushBroadcaster {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PushBroadcaster.class);
+
+    private final Map<UI, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final AtomicLong tickCount = new AtomicLong();
+
+    private final AtomicLong maxTickNanos = new AtomicLong();
+
+    private final Timer accessDelay = new Timer();
+
+    private volatile long lastTickNanos;
+
+    @Value("${push.broadcaster.interval-ms:1000}")
+    private long intervalMs;
+
+    @Value("${push.broadcaster.threads:2}")
+    private int threads;
+
+    @Value("${push.broadcaster.batch-size:256}")
+    private int batchSize;
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService workers;
+
+    @PostConstruct
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory("push-broadcaster-tick"));
+        workers = Executors.newFixedThreadPool(threads, threadFactory("push-broadcaster-worker"));
+        scheduler.scheduleAtFixedRate(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Registers the given UI to have {@code command} run inside {@link UI#access(Runnable)} on every tick. If the
+     * UI has not yet processed the update from the previous tick, the new one is skipped.
+     */
+    public void register(UI ui, Runnable command) {
+        registrations.put(ui, new Registration(ui, command));
+    }
+
+    public void unregister(UI ui) {
+        registrations.remove(ui);
+    }
+
+    public int getRegisteredUIs() {
+        return registrations.size();
+    }
+
+    public long getTickCount() {
+        return tickCount.get();
+    }
+
+    public long getLastTickDuration(TimeUnit unit) {
+        return unit.convert(lastTickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxTickDuration(TimeUnit unit) {
+        return unit.convert(maxTickNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the timer of the delay between queueing an update with {@link UI#access(Runnable)} and running it.
+     */
+    public Timer getAccessDelay() {
+        return accessDelay;
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        List<Registration> snapshot = new ArrayList<>(registrations.values());
+        List<Future<?>> batches = new ArrayList<>(snapshot.size() / batchSize + 1);
+        for (int i = 0; i < snapshot.size(); i += batchSize) {
+            List<Registration> batch = snapshot.subList(i, Math.min(i + batchSize, snapshot.size()));
+            batches.add(workers.submit(() -> batch.forEach(Registration::push)));
+        }
+        try {
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException ex) {
+            LOGGER.warn("Push batch failed", ex.getCause());
+        }
+        long duration = System.nanoTime() - start;
+        lastTickNanos = duration;
+        maxTickNanos.accumulateAndGet(duration, Math::max);
+        tickCount.incrementAndGet();
+        LOGGER.debug("Push tick for {} UIs took {} ms", snapshot.size(), TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class Registration {
+
+        private final UI ui;
+
+        private final Runnable command;
+
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        Registration(UI ui, Runnable command) {
+            this.ui = ui;
+            this.command = command;
+        }
+
+        void push() {
+            if (!pending.compareAndSet(false, true)) {
+                return; // Previous update has not been processed yet, coalesce with it
+            }
+            long queued = System.nanoTime();
+            try {
+                ui.access(() -> {
+                    accessDelay.update(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                    pending.set(false);
+                    command.run();
+                });
+            } catch (UIDetachedException ex) {
+                unregister(ui);
+            }
+        }
+    }
+}
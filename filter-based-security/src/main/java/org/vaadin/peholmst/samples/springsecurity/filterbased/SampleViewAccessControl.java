@@ -1,29 +1,84 @@
 package org.vaadin.peholmst.samples.springsecurity.filterbased;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
+import com.codahale.metrics.Timer;
 import com.vaadin.spring.access.ViewAccessControl;
 import com.vaadin.ui.UI;
 
 /**
- * This demonstrates how you can control access to views.
+ * This demonstrates how you can control access to views. The decisions are cached per session, since the view
+ * provider asks for every view bean on every navigation.
  */
 @Component
 public class SampleViewAccessControl implements ViewAccessControl {
 
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private final LongAdder grantedDecisions = new LongAdder();
+
+    private final LongAdder deniedDecisions = new LongAdder();
+
+    private final Timer decisions = new Timer();
+
     @Override
     public boolean isAccessGranted(UI ui, String beanName) {
+        long start = System.nanoTime();
+        boolean granted = lookupDecision(ui, beanName);
+        decisions.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        (granted ? grantedDecisions : deniedDecisions).increment();
+        return granted;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getGrantedDecisions() {
+        return grantedDecisions.sum();
+    }
+
+    public long getDeniedDecisions() {
+        return deniedDecisions.sum();
+    }
+
+    /**
+     * Returns the timer of all access decisions, both cached and uncached.
+     */
+    public Timer getDecisions() {
+        return decisions;
+    }
+
+    private boolean lookupDecision(UI ui, String beanName) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication != null) {
-            if (beanName.equals("adminView")) {
-                return authentication.getAuthorities().contains(new SimpleGrantedAuthority("ROLE_ADMIN"));
-            } else {
-                return authentication.getAuthorities().contains(new SimpleGrantedAuthority("ROLE_USER"));
-            }
+        ViewAccessDecisionCache cache = ViewAccessDecisionCache.of(ui.getSession());
+        Boolean granted = cache.get(authentication, beanName);
+        if (granted != null) {
+            cacheHits.increment();
+            return granted;
+        }
+        cacheMisses.increment();
+        boolean decision = decide(beanName);
+        cache.put(authentication, beanName, decision);
+        return decision;
+    }
+
+    private boolean decide(String beanName) {
+        if (beanName.equals("adminView") || beanName.equals("sessionsView")) {
+            return SecurityUtils.hasRole("ROLE_ADMIN");
+        } else {
+            return SecurityUtils.hasRole("ROLE_USER");
         }
-        return false;
     }
 }
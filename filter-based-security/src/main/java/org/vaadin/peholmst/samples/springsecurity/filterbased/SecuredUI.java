@@ -2,8 +2,10 @@ package org.vaadin.peholmst.samples.springsecurity.filterbased;
 
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
@@ -14,6 +16,7 @@ import com.vaadin.annotations.Theme;
 import com.vaadin.navigator.Navigator;
 import com.vaadin.server.DefaultErrorHandler;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.communication.PushConnection;
 import com.vaadin.shared.ui.ui.Transport;
 import com.vaadin.spring.annotation.SpringUI;
 import com.vaadin.spring.navigator.SpringViewProvider;
@@ -21,22 +24,37 @@ import com.vaadin.ui.*;
 import com.vaadin.ui.themes.ValoTheme;
 
 @SpringUI
-@Push(transport = Transport.WEBSOCKET_XHR) // Websocket would bypass the filter chain, Websocket+XHR works
+@Push(transport = Transport.WEBSOCKET) // Secured by the WebSocketSecurityInterceptor, as it bypasses the filter chain
 @Theme(ValoTheme.THEME_NAME) // Looks nicer
 public class SecuredUI extends UI {
 
     @Autowired
     BackendService backendService;
 
+    @Autowired
+    BackendPermissions backendPermissions;
+
     @Autowired
     SpringViewProvider viewProvider;
 
     @Autowired
     ErrorView errorView;
 
+    @Autowired
+    PushBroadcaster pushBroadcaster;
+
+    @Autowired
+    SecurityMetrics securityMetrics;
+
+    @Autowired
+    BackgroundExecutor backgroundExecutor;
+
+    @Autowired
+    BackendBatch backendBatch;
+
     private Label timeAndUser;
 
-    private Timer timer;
+    private final Map<Button, String> backendButtons = new HashMap<>();
 
     @Override
     protected void init(VaadinRequest request) {
@@ -49,20 +67,26 @@ public class SecuredUI extends UI {
         buttons.setSpacing(true);
         layout.addComponent(buttons);
 
-        buttons.addComponent(new Button("Invoke user method", event -> {
-            // This method should be accessible by both 'user' and 'admin'.
-            Notification.show(backendService.userMethod());
-        }));
+        // This method should be accessible by both 'user' and 'admin'.
+        buttons.addComponent(createBackendButton("Invoke user method", "userMethod", backendService::userMethod));
+        // The same method, called in the background without holding the session lock
+        buttons.addComponent(new Button("Invoke user method in background",
+            event -> backgroundExecutor.execute(backendService::userMethod, Notification::show)));
         buttons.addComponent(new Button("Navigate to user view", event -> {
             getNavigator().navigateTo("");
         }));
-        buttons.addComponent(new Button("Invoke admin method", event -> {
-            // This method should be accessible by 'admin' only.
-            Notification.show(backendService.adminMethod());
-        }));
+        // This method should be accessible by 'admin' only.
+        buttons.addComponent(createBackendButton("Invoke admin method", "adminMethod", backendService::adminMethod));
+        // Both methods in one call, the user is authorized once for each set of roles
+        buttons.addComponent(new Button("Invoke all methods in batch", event -> Notification.show(
+            backendBatch.invoke(backendBatch.getOperations(), 1).stream().map(Object::toString)
+                .collect(Collectors.joining(", ")))));
         buttons.addComponent(new Button("Navigate to admin view", event -> {
             getNavigator().navigateTo("admin");
         }));
+        buttons.addComponent(new Button("Navigate to sessions view", event -> {
+            getNavigator().navigateTo("sessions");
+        }));
         buttons.addComponent(new Button("Logout", event -> {
             // Let Spring Security handle the logout by redirecting to the logout URL
             getPage().setLocation("logout");
@@ -86,35 +110,69 @@ public class SecuredUI extends UI {
         navigator.setErrorView(errorView);
         viewProvider.setAccessDeniedViewClass(AccessDeniedView.class);
 
-        // Fire up a timer to demonstrate server push. Do NOT use timers in real-world applications, use a thread pool.
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                updateTimeAndUser();
-            }
-        }, 1000L, 1000L);
+        // Register with the shared broadcaster to demonstrate server push
+        pushBroadcaster.register(this, this::updateTimeAndUser);
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        securityMetrics.uiAttached();
     }
 
     @Override
     public void detach() {
+        // Vaadin leaves the websocket open when the session ends, e.g. through a logout or expiry
+        PushConnection pushConnection = getPushConnection();
+        if (pushConnection != null && pushConnection.isConnected()) {
+            pushConnection.disconnect();
+        }
         super.detach();
-        timer.cancel();
+        pushBroadcaster.unregister(this);
+        securityMetrics.uiDetached();
+    }
+
+    /**
+     * Called through {@link #access(Runnable)} when the authorities of the user have changed. Updates the buttons and
+     * checks again whether the user may see the current view.
+     */
+    public void refreshPermissions() {
+        backendButtons.forEach((button, methodName) -> button.setEnabled(backendPermissions.canInvoke(methodName)));
+        getNavigator().navigateTo(getNavigator().getState());
+        Notification.show("Your permissions have changed", Notification.Type.TRAY_NOTIFICATION);
     }
 
     private void updateTimeAndUser() {
-        // Demonstrate that server push works, but the security context is not available inside the Timer thread
-        // since it is thread-local and populated by a servlet filter.
-        access(
-            () -> timeAndUser.setValue(String.format("The server-side time is %s and the authentication token in this thread is %s",
-                LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")), SecurityContextHolder.getContext().getAuthentication())));
+        // Demonstrate that server push works, but the security context is not available inside the broadcaster
+        // thread since it is thread-local and populated by a servlet filter. Work that needs it can be run through
+        // the BackgroundExecutor instead.
+        timeAndUser.setValue(String.format("The server-side time is %s and the authentication token in this thread is %s",
+            LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")), SecurityContextHolder.getContext().getAuthentication()));
+    }
+
+    private Button createBackendButton(String caption, String methodName, Supplier<String> method) {
+        Button button = new Button(caption, event -> {
+            // Reject the call up front instead of letting the method security interceptor throw an exception
+            if (backendPermissions.checkInvoke(methodName)) {
+                Notification.show(method.get());
+            } else {
+                showAccessDenied();
+            }
+        });
+        button.setEnabled(backendPermissions.canInvoke(methodName));
+        backendButtons.put(button, methodName);
+        return button;
+    }
+
+    private void showAccessDenied() {
+        Notification.show("You do not have permission to perform this operation", Notification.Type.WARNING_MESSAGE);
     }
 
     private void handleError(com.vaadin.server.ErrorEvent event) {
         Throwable t = DefaultErrorHandler.findRelevantThrowable(event.getThrowable());
         if (t instanceof AccessDeniedException) {
-            Notification.show("You do not have permission to perform this operation",
-                Notification.Type.WARNING_MESSAGE);
+            backendPermissions.recordExceptionDenial();
+            showAccessDenied();
         } else {
             DefaultErrorHandler.doDefault(event);
         }
@@ -0,0 +1,34 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the latency and allocations of every filter of the Spring Security filter chains, as measured by the
+ * {@link SecurityFilterProfiler}. Published as the {@code securityfilters} actuator endpoint when
+ * {@code security.profiler.enabled} is set. Latencies are in microseconds and leave out the rest of the chain.
+ */
+@Component
+@ConditionalOnProperty(name = "security.profiler.enabled")
+public class SecurityFilterProfileEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    SecurityFilterProfiler profiler;
+
+    public SecurityFilterProfileEndpoint() {
+        super("securityfilters");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("allocationsMeasured", profiler.isMeasuringAllocations());
+        result.put("chains", profiler.getChains());
+        return result;
+    }
+}
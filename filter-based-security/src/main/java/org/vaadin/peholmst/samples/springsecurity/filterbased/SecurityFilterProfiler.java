@@ -0,0 +1,219 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.security.web.DefaultSecurityFilterChain;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+
+/**
+ * Wraps every filter of the Spring Security filter chains in a filter that measures how long the filter itself takes
+ * and how many bytes it allocates, without the filters and the servlet after it. Only enabled by
+ * {@code security.profiler.enabled}, as it adds two clock and two allocation counter reads per filter and request.
+ * The results are published as the {@code securityfilters} actuator endpoint, see
+ * {@link SecurityFilterProfileEndpoint}.
+ * <p>
+ * Allocations are read from the per-thread counters of the HotSpot JVM and are reported as zero on other JVMs.
+ */
+@Component
+@ConditionalOnProperty(name = "security.profiler.enabled")
+public class SecurityFilterProfiler implements BeanPostProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecurityFilterProfiler.class);
+
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = getAllocationCounters();
+
+    private final List<ProfiledChain> chains = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof FilterChainProxy) {
+            for (SecurityFilterChain chain : ((FilterChainProxy) bean).getFilterChains()) {
+                ProfiledChain profiledChain = new ProfiledChain(chain instanceof DefaultSecurityFilterChain
+                    ? ((DefaultSecurityFilterChain) chain).getRequestMatcher().toString() : chain.toString());
+                try {
+                    // The filter lists of the chains built by HttpSecurity can be changed in place
+                    chain.getFilters().replaceAll(profiledChain::add);
+                    chains.add(profiledChain);
+                } catch (UnsupportedOperationException ex) {
+                    LOGGER.warn("Filters of {} can not be profiled", profiledChain.requestMatcher);
+                }
+            }
+        }
+        return bean;
+    }
+
+    public boolean isMeasuringAllocations() {
+        return ALLOCATIONS != null;
+    }
+
+    /**
+     * Returns the latencies and allocations of the filters of every chain, in the order of the filters.
+     */
+    public List<Map<String, Object>> getChains() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (ProfiledChain chain : chains) {
+            List<Map<String, Object>> filters = new ArrayList<>();
+            for (ProfiledFilter filter : chain.filters) {
+                filters.add(filter.report());
+            }
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("requestMatcher", chain.requestMatcher);
+            report.put("filters", filters);
+            result.add(report);
+        }
+        return result;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationCounters() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (LinkageError | UnsupportedOperationException ex) {
+            // Not a HotSpot JVM
+        }
+        return null;
+    }
+
+    private static double micros(double nanos) {
+        return Math.round(nanos / 10) / 100.0;
+    }
+
+    private static final class ProfiledChain {
+
+        private final String requestMatcher;
+
+        private final List<ProfiledFilter> filters = new ArrayList<>();
+
+        ProfiledChain(String requestMatcher) {
+            this.requestMatcher = requestMatcher;
+        }
+
+        Filter add(Filter filter) {
+            ProfiledFilter profiledFilter = new ProfiledFilter(filter);
+            filters.add(profiledFilter);
+            return profiledFilter;
+        }
+    }
+
+    private static final class ProfiledFilter implements Filter {
+
+        private final Filter filter;
+
+        private final Timer latencies = new Timer();
+
+        // Allocations do not drift over time like latencies, a uniform sample is enough
+        private final Histogram allocations = new Histogram(new UniformReservoir());
+
+        ProfiledFilter(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException {
+            filter.init(filterConfig);
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+            Downstream downstream = new Downstream(chain);
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            try {
+                filter.doFilter(request, response, downstream);
+            } finally {
+                long nanos = System.nanoTime() - start - downstream.nanos;
+                long bytes = allocatedBytes() - startBytes - downstream.bytes;
+                latencies.update(nanos, TimeUnit.NANOSECONDS);
+                allocations.update(bytes);
+            }
+        }
+
+        @Override
+        public void destroy() {
+            filter.destroy();
+        }
+
+        Map<String, Object> report() {
+            Snapshot latency = latencies.getSnapshot();
+            Snapshot allocation = allocations.getSnapshot();
+            Map<String, Object> report = new LinkedHashMap<>();
+            String name = filter.getClass().getSimpleName();
+            report.put("filter", name.isEmpty() ? filter.getClass().getName() : name);
+            report.put("count", latencies.getCount());
+            report.put("mean-us", micros(latency.getMean()));
+            report.put("median-us", micros(latency.getMedian()));
+            report.put("99thPercentile-us", micros(latency.get99thPercentile()));
+            report.put("max-us", micros(latency.getMax()));
+            report.put("allocated-bytes-mean", Math.round(allocation.getMean()));
+            report.put("allocated-bytes-99thPercentile", Math.round(allocation.get99thPercentile()));
+            return report;
+        }
+    }
+
+    /**
+     * The rest of the chain after a profiled filter, timed so that it can be left out of the time of the filter.
+     */
+    private static final class Downstream implements FilterChain {
+
+        private final FilterChain chain;
+
+        private long nanos;
+
+        private long bytes;
+
+        Downstream(FilterChain chain) {
+            this.chain = chain;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                nanos += System.nanoTime() - start;
+                bytes += allocatedBytes() - startBytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Publishes the timers and counters of the authentication, authorization and push stages in the metric registry, so
+ * that they show up in the {@code /metrics} actuator endpoint. Timers are published with their percentiles in
+ * milliseconds, e.g. {@code security.authentication.snapshot.99thPercentile}.
+ */
+@Component
+public class SecurityMetrics {
+
+    private final Timer authentications = new Timer();
+
+    private final Counter successfulAuthentications = new Counter();
+
+    private final Counter failedAuthentications = new Counter();
+
+    private final Counter activeSessions = new Counter();
+
+    private final Counter activeUIs = new Counter();
+
+    @Autowired
+    MetricRegistry metricRegistry;
+
+    @Autowired
+    LoginThrottle loginThrottle;
+
+    @Autowired
+    IndexedUserDetailsService userDetailsService;
+
+    @Autowired
+    AdaptivePasswordEncoder passwordEncoder;
+
+    @Autowired
+    PasswordRehashQueue rehashQueue;
+
+    @Autowired
+    SampleViewAccessControl viewAccessControl;
+
+    @Autowired
+    CompiledSecuredMethodInterceptor methodSecurityInterceptor;
+
+    @Autowired
+    BackendPermissions backendPermissions;
+
+    @Autowired
+    PushBroadcaster pushBroadcaster;
+
+    @Autowired
+    SessionPersistence sessionPersistence;
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
+    @Autowired
+    AuthorityRevocation authorityRevocation;
+
+    @Autowired
+    StaticResourceFilter staticResourceFilter;
+
+    @Autowired
+    LoginPageCache loginPageCache;
+
+    @Autowired
+    SecurityOverheadProbe securityOverheadProbe;
+
+    @Autowired
+    BackgroundExecutor backgroundExecutor;
+
+    @Autowired
+    BackendBatch backendBatch;
+
+    @Autowired
+    ApiTokenService apiTokenService;
+
+    @PostConstruct
+    void registerMetrics() {
+        metricRegistry.register("security.authentication", authentications);
+        metricRegistry.register("security.authentication.successful", successfulAuthentications);
+        metricRegistry.register("security.authentication.failed", failedAuthentications);
+        metricRegistry.register("security.authentication.throttled.username",
+            gauge(loginThrottle::getRejectedByUsername));
+        metricRegistry.register("security.authentication.throttled.address",
+            gauge(loginThrottle::getRejectedByAddress));
+        metricRegistry.register("security.authentication.throttled.global", gauge(loginThrottle::getRejectedGlobally));
+
+        metricRegistry.register("users.store.size", (Gauge<Integer>) userDetailsService::getUserCount);
+        metricRegistry.register("users.cache.size", gauge(userDetailsService::getCachedUserCount));
+        metricRegistry.register("users.cache.hit-rate", (Gauge<Double>) userDetailsService::getCacheHitRate);
+        metricRegistry.register("users.password.strength", (Gauge<Integer>) passwordEncoder::getStrength);
+        metricRegistry.register("users.password.rehash.pending", (Gauge<Integer>) rehashQueue::getPendingRehashes);
+        metricRegistry.register("users.password.rehash.completed", gauge(rehashQueue::getRehashedPasswords));
+        metricRegistry.register("users.password.rehash.dropped", gauge(rehashQueue::getDroppedRehashes));
+
+        metricRegistry.register("security.view-access", viewAccessControl.getDecisions());
+        metricRegistry.register("security.view-access.granted", gauge(viewAccessControl::getGrantedDecisions));
+        metricRegistry.register("security.view-access.denied", gauge(viewAccessControl::getDeniedDecisions));
+        metricRegistry.register("security.view-access.cache-hits", gauge(viewAccessControl::getCacheHits));
+        metricRegistry.register("security.view-access.cache-misses", gauge(viewAccessControl::getCacheMisses));
+
+        // The security filters take well below a millisecond, so they are also published in microseconds
+        registerMicros("security.filters.vaadin-requests", securityOverheadProbe.getVaadinRequests());
+        registerMicros("security.filters.other-requests", securityOverheadProbe.getOtherRequests());
+
+        metricRegistry.register("security.secured.standard", methodSecurityInterceptor.getStandardInvocations());
+        metricRegistry.register("security.secured.granted",
+            gauge(methodSecurityInterceptor::getGrantedInvocations));
+        metricRegistry.register("security.secured.denied", gauge(methodSecurityInterceptor::getDeniedInvocations));
+        metricRegistry.register("security.secured.rejected-up-front", gauge(backendPermissions::getRejectedCalls));
+        metricRegistry.register("security.secured.exception-denials", gauge(backendPermissions::getExceptionDenials));
+
+        metricRegistry.register("backend.batch", backendBatch.getBatches());
+        metricRegistry.register("backend.batch.operations", gauge(backendBatch::getInvokedOperations));
+        metricRegistry.register("backend.batch.denied", gauge(backendBatch::getDeniedOperations));
+        metricRegistry.register("backend.batch.authorizations", gauge(backendBatch::getAuthorizations));
+
+        metricRegistry.register("push.access-delay", pushBroadcaster.getAccessDelay());
+        metricRegistry.register("push.registered-uis", (Gauge<Integer>) pushBroadcaster::getRegisteredUIs);
+        metricRegistry.register("push.ticks", gauge(pushBroadcaster::getTickCount));
+        metricRegistry.register("push.tick.last-ms",
+            gauge(() -> pushBroadcaster.getLastTickDuration(TimeUnit.MILLISECONDS)));
+        metricRegistry.register("push.tick.max-ms",
+            gauge(() -> pushBroadcaster.getMaxTickDuration(TimeUnit.MILLISECONDS)));
+
+        metricRegistry.register("vaadin.sessions.active", activeSessions);
+        metricRegistry.register("session.store.pending", (Gauge<Integer>) sessionPersistence::getPendingOperations);
+        metricRegistry.register("session.store.written", gauge(sessionPersistence::getWrittenRecords));
+        metricRegistry.register("session.store.restored", gauge(sessionPersistence::getRestoredSessions));
+        metricRegistry.register("session.registry.sessions", (Gauge<Integer>) sessionRegistry::getSessionCount);
+        metricRegistry.register("session.registry.principals", (Gauge<Integer>) sessionRegistry::getPrincipalCount);
+        metricRegistry.register("session.registry.timeouts", (Gauge<Integer>) sessionRegistry::getScheduledTimeouts);
+        metricRegistry.register("session.registry.expired", gauge(sessionRegistry::getExpiredSessions));
+        metricRegistry.register("session.registry.ended", gauge(sessionRegistry::getEndedSessions));
+        metricRegistry.register("security.revocation.pending", (Gauge<Integer>) authorityRevocation::getPendingUsers);
+        metricRegistry.register("security.revocation.updated", gauge(authorityRevocation::getUpdatedSessions));
+        metricRegistry.register("security.revocation.ended", gauge(authorityRevocation::getEndedSessions));
+        metricRegistry.register("security.revocation.refreshed-uis", gauge(authorityRevocation::getRefreshedUIs));
+        metricRegistry.register("static.resources.served", gauge(staticResourceFilter::getServedResources));
+        metricRegistry.register("static.resources.not-modified", gauge(staticResourceFilter::getNotModifiedResources));
+        metricRegistry.register("static.resources.sendfile", gauge(staticResourceFilter::getSentFiles));
+        metricRegistry.register("login.page.renders", gauge(loginPageCache::getRenderedPages));
+        metricRegistry.register("background.pending", (Gauge<Integer>) backgroundExecutor::getPendingTasks);
+        metricRegistry.register("background.rejected", gauge(backgroundExecutor::getRejectedTasks));
+        metricRegistry.register("background.dropped-results", gauge(backgroundExecutor::getDroppedResults));
+        metricRegistry.register("api.tokens.issued", gauge(apiTokenService::getIssuedTokens));
+        metricRegistry.register("api.tokens.accepted", gauge(apiTokenService::getAcceptedTokens));
+        metricRegistry.register("api.tokens.rejected", gauge(apiTokenService::getRejectedTokens));
+        metricRegistry.register("vaadin.uis.active", activeUIs);
+    }
+
+    /**
+     * Records an authentication attempt that took the given number of nanoseconds.
+     */
+    public void recordAuthentication(long nanos, boolean successful) {
+        authentications.update(nanos, TimeUnit.NANOSECONDS);
+        (successful ? successfulAuthentications : failedAuthentications).inc();
+    }
+
+    public void sessionCreated() {
+        activeSessions.inc();
+    }
+
+    public void sessionDestroyed() {
+        activeSessions.dec();
+    }
+
+    public void uiAttached() {
+        activeUIs.inc();
+    }
+
+    public void uiDetached() {
+        activeUIs.dec();
+    }
+
+    private void registerMicros(String name, Timer timer) {
+        metricRegistry.register(name, timer);
+        metricRegistry.register(name + ".mean-us", gauge(() -> (long) timer.getSnapshot().getMean() / 1000));
+        metricRegistry.register(name + ".99thPercentile-us",
+            gauge(() -> (long) timer.getSnapshot().get99thPercentile() / 1000));
+    }
+
+    private static Gauge<Long> gauge(Gauge<Long> gauge) {
+        return gauge;
+    }
+}
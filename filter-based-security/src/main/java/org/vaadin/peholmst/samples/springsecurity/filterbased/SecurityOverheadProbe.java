@@ -0,0 +1,71 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Measures how long requests spend in the Spring Security filters, from a filter registered right before the
+ * {@code springSecurityFilterChain} to one registered right after it. Vaadin heartbeat, UIDL and push requests are
+ * timed apart from the others. Requests that the security filters do not pass on, such as redirects to the login page,
+ * are not timed.
+ */
+@Component
+public class SecurityOverheadProbe {
+
+    private static final String START_ATTRIBUTE = SecurityOverheadProbe.class.getName() + ".START";
+
+    private final Timer vaadinRequests = new Timer();
+
+    private final Timer otherRequests = new Timer();
+
+    public Timer getVaadinRequests() {
+        return vaadinRequests;
+    }
+
+    public Timer getOtherRequests() {
+        return otherRequests;
+    }
+
+    /**
+     * Returns the filter that goes right before the security filters.
+     */
+    public OncePerRequestFilter createStartFilter() {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                FilterChain filterChain) throws ServletException, IOException {
+                request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+                filterChain.doFilter(request, response);
+            }
+        };
+    }
+
+    /**
+     * Returns the filter that goes right after the security filters.
+     */
+    public OncePerRequestFilter createEndFilter() {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                FilterChain filterChain) throws ServletException, IOException {
+                Object start = request.getAttribute(START_ATTRIBUTE);
+                if (start instanceof Long) {
+                    request.removeAttribute(START_ATTRIBUTE);
+                    (VaadinFastPathFilter.isVaadinRequest(request) ? vaadinRequests : otherRequests)
+                        .update(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+                }
+                filterChain.doFilter(request, response);
+            }
+        };
+    }
+}
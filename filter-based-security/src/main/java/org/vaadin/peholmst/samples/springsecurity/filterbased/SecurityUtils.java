@@ -0,0 +1,25 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public final class SecurityUtils {
+
+    private SecurityUtils() {
+    }
+
+    public static boolean isLoggedIn() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null && authentication.isAuthenticated();
+    }
+
+    public static boolean hasRole(String role) {
+        SecurityContext context = SecurityContextHolder.getContext();
+        if (context instanceof CompiledSecurityContext) {
+            return ((CompiledSecurityContext) context).hasAuthority(role);
+        }
+        Authentication authentication = context.getAuthentication();
+        return CompiledAuthorities.hasAuthority(CompiledAuthorities.compile(authentication), authentication, role);
+    }
+}
@@ -0,0 +1,243 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.stereotype.Component;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedSession;
+
+/**
+ * Reports how much memory and serialized session space the authentications of the open sessions take, next to what
+ * the full {@link UsernamePasswordAuthenticationToken}s that were kept before {@link SessionAuthentication} would
+ * take, and projects both to {@code session.footprint.projected-sessions} sessions. Published as the
+ * {@code sessionfootprint} actuator endpoint.
+ * <p>
+ * Heap sizes are estimated by walking the object graphs, assuming compressed references. Objects shared between
+ * sessions are counted once.
+ */
+@Component
+public class SessionFootprintEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    private final Set<VaadinSession> sessions = ConcurrentHashMap.newKeySet();
+
+    @Value("${session.footprint.projected-sessions:50000}")
+    private int projectedSessions;
+
+    public SessionFootprintEndpoint() {
+        super("sessionfootprint");
+    }
+
+    public void sessionCreated(VaadinSession session) {
+        sessions.add(session);
+    }
+
+    public void sessionDestroyed(VaadinSession session) {
+        sessions.remove(session);
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Footprint stored = new Footprint();
+        Footprint expanded = new Footprint();
+        int sessionCount = 0;
+        for (VaadinSession session : sessions) {
+            ++sessionCount;
+            Authentication authentication = getAuthentication(session);
+            if (authentication == null || !authentication.isAuthenticated()) {
+                continue;
+            }
+            stored.add(authentication);
+            Object principal = authentication.getPrincipal();
+            if (principal instanceof UserDetails) {
+                expanded.add(new UsernamePasswordAuthenticationToken(principal, null,
+                    ((UserDetails) principal).getAuthorities()));
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sessions", sessionCount);
+        result.put("authenticatedSessions", stored.count);
+        result.put("stored", stored.report(projectedSessions));
+        result.put("expanded", expanded.report(projectedSessions));
+        return result;
+    }
+
+    private static Authentication getAuthentication(VaadinSession session) {
+        WrappedSession httpSession = session.getSession();
+        if (httpSession == null) {
+            return null;
+        }
+        try {
+            Object context = httpSession.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+            return context instanceof SecurityContext ? ((SecurityContext) context).getAuthentication() : null;
+        } catch (IllegalStateException ex) {
+            return null; // The session has been invalidated meanwhile
+        }
+    }
+
+    /**
+     * The total heap and serialized size of a number of authentications.
+     */
+    private static final class Footprint {
+
+        private final Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private int count;
+
+        private long heapBytes;
+
+        private long serializedBytes;
+
+        void add(Authentication authentication) {
+            ++count;
+            heapBytes += HeapEstimator.deepSize(authentication, counted);
+            serializedBytes += serializedSize(authentication);
+        }
+
+        Map<String, Object> report(int projectedSessions) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("heapBytes", heapBytes);
+            report.put("serializedBytes", serializedBytes);
+            long heapPerSession = count == 0 ? 0 : heapBytes / count;
+            long serializedPerSession = count == 0 ? 0 : serializedBytes / count;
+            report.put("heapBytesPerSession", heapPerSession);
+            report.put("serializedBytesPerSession", serializedPerSession);
+            // The shared objects have already been counted once, so the average is slightly pessimistic
+            report.put("projectedSessions", projectedSessions);
+            report.put("projectedHeapBytes", heapPerSession * projectedSessions);
+            report.put("projectedSerializedBytes", serializedPerSession * projectedSessions);
+            return report;
+        }
+
+        private static long serializedSize(Object object) {
+            CountingOutputStream counter = new CountingOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(counter)) {
+                out.writeObject(object);
+            } catch (IOException ex) {
+                return -1;
+            }
+            return counter.count;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Estimates the shallow sizes of the objects reachable from a root, assuming a 12 byte object header, 4 byte
+     * references and 8 byte alignment.
+     */
+    private static final class HeapEstimator {
+
+        private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+
+        static long deepSize(Object root, Set<Object> counted) {
+            long size = 0;
+            Deque<Object> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Object object = pending.pop();
+                if (object instanceof Class || !counted.add(object)) {
+                    continue;
+                }
+                Class<?> type = object.getClass();
+                if (type.isArray()) {
+                    int length = Array.getLength(object);
+                    Class<?> component = type.getComponentType();
+                    size += align(16 + (long) length * sizeOf(component));
+                    if (!component.isPrimitive()) {
+                        for (int i = 0; i < length; ++i) {
+                            push(pending, Array.get(object, i));
+                        }
+                    }
+                    continue;
+                }
+                long shallow = 12;
+                for (Field field : fields(type)) {
+                    shallow += sizeOf(field.getType());
+                    if (!field.getType().isPrimitive()) {
+                        try {
+                            push(pending, field.get(object));
+                        } catch (IllegalAccessException ex) {
+                            // Counted shallowly only
+                        }
+                    }
+                }
+                size += align(shallow);
+            }
+            return size;
+        }
+
+        private static void push(Deque<Object> pending, Object object) {
+            if (object != null) {
+                pending.push(object);
+            }
+        }
+
+        private static Field[] fields(Class<?> type) {
+            return FIELDS.computeIfAbsent(type, key -> {
+                Map<String, Field> fields = new LinkedHashMap<>();
+                for (Class<?> current = key; current != null; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            try {
+                                field.setAccessible(true);
+                            } catch (RuntimeException ex) {
+                                // Not accessible on newer JVMs, the value is skipped
+                            }
+                            fields.put(current.getName() + "." + field.getName(), field);
+                        }
+                    }
+                }
+                return fields.values().toArray(new Field[0]);
+            });
+        }
+
+        private static int sizeOf(Class<?> type) {
+            if (type == long.class || type == double.class) {
+                return 8;
+            } else if (type == int.class || type == float.class || !type.isPrimitive()) {
+                return 4;
+            } else if (type == short.class || type == char.class) {
+                return 2;
+            }
+            return 1;
+        }
+
+        private static long align(long size) {
+            return (size + 7) & ~7L;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedHttpSession;
+import com.vaadin.server.WrappedSession;
+
+/**
+ * Keeps track of the live Vaadin sessions on this node and who they belong to, and ends the sessions that have been
+ * idle for {@code session.registry.idle-timeout} seconds.
+ * <p>
+ * Every event costs the same no matter how many sessions there are: requests only record the time of the last
+ * access, and the idle timeouts are kept in a {@link TimingWheel} that is turned once per tick. A session whose
+ * timeout comes up while it is still in use is simply scheduled again for the end of its new idle period, so every
+ * session is looked at about once per idle timeout instead of on every scan.
+ */
+@Component
+public class SessionRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionRegistry.class);
+
+    private final Map<VaadinSession, RegisteredSession> sessions = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<RegisteredSession>> sessionsByPrincipal = new ConcurrentHashMap<>();
+
+    private final LongAdder expiredSessions = new LongAdder();
+
+    private final LongAdder endedSessions = new LongAdder();
+
+    @Autowired
+    SessionPersistence sessionPersistence;
+
+    @Value("${session.registry.idle-timeout:${server.session.timeout:1800}}")
+    private long idleTimeoutSeconds;
+
+    @Value("${session.registry.tick-ms:1000}")
+    private long tickMillis;
+
+    private TimingWheel<RegisteredSession> wheel;
+
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    void start() {
+        wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-registry-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::expire, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        ticker.shutdownNow();
+    }
+
+    public void sessionCreated(VaadinSession session) {
+        long now = System.currentTimeMillis();
+        RegisteredSession registered = new RegisteredSession(session, now);
+        sessions.put(session, registered);
+        synchronized (wheel) {
+            registered.timeout = wheel.schedule(registered, now + TimeUnit.SECONDS.toMillis(idleTimeoutSeconds));
+        }
+    }
+
+    /**
+     * Restarts the idle timeout of the given session. Only a volatile write, the wheel is not touched.
+     */
+    public void sessionAccessed(VaadinSession session) {
+        RegisteredSession registered = sessions.get(session);
+        if (registered != null) {
+            registered.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Indexes the given session by the name of the user that has logged in to it.
+     */
+    public void sessionAuthenticated(VaadinSession session, String principal) {
+        RegisteredSession registered = sessions.get(session);
+        if (registered == null || principal.equals(registered.principal)) {
+            return;
+        }
+        unindex(registered);
+        registered.principal = principal;
+        sessionsByPrincipal.compute(principal, (key, principalSessions) -> {
+            Set<RegisteredSession> updated = principalSessions == null ? ConcurrentHashMap.newKeySet()
+                : principalSessions;
+            updated.add(registered);
+            return updated;
+        });
+    }
+
+    public void sessionDestroyed(VaadinSession session) {
+        RegisteredSession registered = sessions.remove(session);
+        if (registered == null) {
+            return;
+        }
+        synchronized (wheel) {
+            wheel.cancel(registered.timeout);
+        }
+        unindex(registered);
+    }
+
+    /**
+     * Returns up to {@code limit} live sessions, in no particular order.
+     */
+    public List<RegisteredSession> getSessions(int limit) {
+        List<RegisteredSession> result = new ArrayList<>(Math.min(limit, sessions.size()));
+        for (RegisteredSession registered : sessions.values()) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(registered);
+        }
+        return result;
+    }
+
+    public List<RegisteredSession> getSessions(String principal) {
+        Set<RegisteredSession> principalSessions = sessionsByPrincipal.get(principal);
+        return principalSessions == null ? Collections.emptyList() : new ArrayList<>(principalSessions);
+    }
+
+    /**
+     * Ends the given session: the user is logged out on all nodes and the HTTP session is invalidated, which in turn
+     * closes the Vaadin session.
+     */
+    public void endSession(RegisteredSession registered) {
+        WrappedSession wrappedSession = registered.session.getSession();
+        if (!(wrappedSession instanceof WrappedHttpSession)) {
+            return; // Already closed
+        }
+        HttpSession httpSession = ((WrappedHttpSession) wrappedSession).getHttpSession();
+        sessionPersistence.discard(httpSession);
+        try {
+            httpSession.invalidate();
+            endedSessions.increment();
+        } catch (IllegalStateException ex) {
+            // Already invalidated
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public int getPrincipalCount() {
+        return sessionsByPrincipal.size();
+    }
+
+    public int getScheduledTimeouts() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    public long getExpiredSessions() {
+        return expiredSessions.sum();
+    }
+
+    public long getEndedSessions() {
+        return endedSessions.sum();
+    }
+
+    private void unindex(RegisteredSession registered) {
+        if (registered.principal != null) {
+            sessionsByPrincipal.computeIfPresent(registered.principal, (key, principalSessions) -> {
+                principalSessions.remove(registered);
+                return principalSessions.isEmpty() ? null : principalSessions;
+            });
+        }
+    }
+
+    private void expire() {
+        try {
+            long now = System.currentTimeMillis();
+            long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+            List<RegisteredSession> idle = new ArrayList<>();
+            synchronized (wheel) {
+                for (RegisteredSession registered : wheel.advance(now)) {
+                    long deadline = registered.lastAccess + idleTimeoutMillis;
+                    if (deadline > now) {
+                        wheel.reschedule(registered.timeout, deadline);
+                    } else {
+                        idle.add(registered);
+                    }
+                }
+            }
+            // Sessions are ended outside of the lock, since that ends up in sessionDestroyed
+            for (RegisteredSession registered : idle) {
+                expiredSessions.increment();
+                endSession(registered);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not expire idle sessions", ex);
+        }
+    }
+
+    /**
+     * A live session as seen by the registry.
+     */
+    public static final class RegisteredSession {
+
+        private final VaadinSession session;
+
+        private final long created;
+
+        private volatile long lastAccess;
+
+        private volatile String principal;
+
+        private TimingWheel.Timeout<RegisteredSession> timeout;
+
+        private RegisteredSession(VaadinSession session, long created) {
+            this.session = session;
+            this.created = created;
+            this.lastAccess = created;
+        }
+
+        public VaadinSession getSession() {
+            return session;
+        }
+
+        /**
+         * Returns the name of the user, or null if nobody has logged in to the session yet.
+         */
+        public String getPrincipal() {
+            return principal;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getLastAccess() {
+            return lastAccess;
+        }
+    }
+}
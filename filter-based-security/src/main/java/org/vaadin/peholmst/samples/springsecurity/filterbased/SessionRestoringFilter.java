@@ -0,0 +1,38 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Restores the authentication of a user that logged in on another node, or before this node was restarted, from the
+ * {@link SessionPersistence}. Runs right after the security context has been loaded from the HTTP session, which then
+ * saves the restored context in a new session at the end of the request.
+ */
+public class SessionRestoringFilter extends OncePerRequestFilter {
+
+    private final SessionPersistence sessionPersistence;
+
+    public SessionRestoringFilter(SessionPersistence sessionPersistence) {
+        this.sessionPersistence = sessionPersistence;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        if (SecurityContextHolder.getContext().getAuthentication() == null) {
+            Authentication authentication = sessionPersistence.restore(request, response);
+            if (authentication != null) {
+                SecurityContextHolder.getContext().setAuthentication(authentication);
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+}
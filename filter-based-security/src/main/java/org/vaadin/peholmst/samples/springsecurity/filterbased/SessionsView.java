@@ -0,0 +1,129 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewChangeListener;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.spring.annotation.SpringView;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.Table;
+import com.vaadin.ui.TextField;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Lists the live sessions on this node and lets an admin end them. Only a limited number of sessions is listed, the
+ * sessions of a particular user are looked up in the index of the {@link SessionRegistry}. The authorities of a user
+ * can be changed or the account disabled, which is applied to the live sessions of the user right away.
+ */
+@SpringView(name = "sessions")
+public class SessionsView extends VerticalLayout implements View {
+
+    private static final int MAX_ROWS = 1000;
+
+    private static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
+    @Autowired
+    AuthorityRevocation authorityRevocation;
+
+    private final TextField principal = new TextField("Username");
+
+    private final TextField authorities = new TextField("Authorities");
+
+    private final Label summary = new Label();
+
+    private final Table table = new Table();
+
+    public SessionsView() {
+        setMargin(true);
+        setSpacing(true);
+        setSizeFull();
+
+        authorities.setInputPrompt("ROLE_USER ROLE_ADMIN");
+        HorizontalLayout controls = new HorizontalLayout(principal, new Button("Refresh", event -> refresh()),
+            authorities, new Button("Change authorities", event -> updateAccount(username -> authorityRevocation
+                .updateAuthorities(username, enteredAuthorities()))),
+            new Button("Disable account", event -> updateAccount(
+                username -> authorityRevocation.setEnabled(username, false))),
+            new Button("Enable account", event -> updateAccount(
+                username -> authorityRevocation.setEnabled(username, true))));
+        controls.setSpacing(true);
+        addComponents(new Label("Sessions view"), controls, summary, table);
+
+        table.addContainerProperty("User", String.class, null);
+        table.addContainerProperty("Created", String.class, null);
+        table.addContainerProperty("Age", String.class, null);
+        table.addContainerProperty("Idle", String.class, null);
+        table.addContainerProperty("", Button.class, null);
+        table.setSizeFull();
+        setExpandRatio(table, 1.0f);
+    }
+
+    @Override
+    public void enter(ViewChangeListener.ViewChangeEvent event) {
+        refresh();
+    }
+
+    private void refresh() {
+        String username = principal.getValue().trim();
+        List<SessionRegistry.RegisteredSession> sessions = username.isEmpty() ? sessionRegistry.getSessions(MAX_ROWS)
+            : sessionRegistry.getSessions(username);
+        summary.setValue(String.format("%d sessions of %d users on this node, showing %d",
+            sessionRegistry.getSessionCount(), sessionRegistry.getPrincipalCount(), sessions.size()));
+
+        long now = System.currentTimeMillis();
+        table.removeAllItems();
+        for (SessionRegistry.RegisteredSession session : sessions) {
+            Button end = new Button("End", event -> {
+                sessionRegistry.endSession(session);
+                refresh();
+            });
+            // Invalidating the session that is handling this request would break the response
+            end.setEnabled(session.getSession() != VaadinSession.getCurrent());
+            table.addItem(new Object[] { session.getPrincipal(),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(session.getCreated()), ZoneId.systemDefault())
+                    .format(CREATED_FORMAT),
+                format(now - session.getCreated()), format(now - session.getLastAccess()), end }, session);
+        }
+    }
+
+    private void updateAccount(Consumer<String> change) {
+        String username = principal.getValue().trim();
+        if (username.isEmpty()) {
+            Notification.show("Enter a username", Notification.Type.WARNING_MESSAGE);
+            return;
+        }
+        try {
+            change.accept(username);
+            Notification.show("The account of " + username + " has been changed, its sessions are being updated");
+        } catch (UsernameNotFoundException ex) {
+            Notification.show("No such user: " + username, Notification.Type.WARNING_MESSAGE);
+        }
+    }
+
+    private String[] enteredAuthorities() {
+        String value = authorities.getValue().trim();
+        return value.isEmpty() ? new String[0] : value.split("\\s+");
+    }
+
+    private static String format(long millis) {
+        Duration duration = Duration.ofMillis(Math.max(millis, 0));
+        return String.format("%d:%02d:%02d", duration.toHours(), duration.toMinutes() % 60,
+            duration.getSeconds() % 60);
+    }
+}
@@ -0,0 +1,97 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Lets the requests that a Vaadin UI makes on its own, i.e. heartbeats, UIDL requests and push messages sent with XHR,
+ * past the security filters when their session is already authenticated. This is the only check the full filter chain
+ * would make for them, since they are neither logins, logouts nor requests for the login page.
+ * <p>
+ * The filter is also the {@link RequestMatcher} of its own filter chain, which is placed before the full one: the
+ * matcher picks the requests whose HTTP session holds an authenticated security context, and the filter binds that
+ * context to the thread for the request. It is not written back, Vaadin requests do not change it. Requests without an
+ * authenticated session do not match and go through the full chain, which sends them to the login page.
+ */
+public class VaadinFastPathFilter extends OncePerRequestFilter implements RequestMatcher {
+
+    private static final String CONTEXT_ATTRIBUTE = VaadinFastPathFilter.class.getName() + ".CONTEXT";
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        if (!isVaadinRequest(request)) {
+            return false;
+        }
+        HttpSession session = request.getSession(false);
+        if (session == null) {
+            return false;
+        }
+        Object context;
+        try {
+            context = session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        } catch (IllegalStateException ex) {
+            return false; // Invalidated meanwhile
+        }
+        if (context instanceof SecurityContext && isAuthenticated(((SecurityContext) context).getAuthentication())) {
+            // Handed to the filter, so that the session is looked at only once
+            request.setAttribute(CONTEXT_ATTRIBUTE, context);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        SecurityContext context = (SecurityContext) request.getAttribute(CONTEXT_ATTRIBUTE);
+        if (context == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN); // Not matched by this filter, should not happen
+            return;
+        }
+        request.removeAttribute(CONTEXT_ATTRIBUTE);
+        SecurityContextHolder.setContext(context);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Vaadin requests of authenticated sessions";
+    }
+
+    /**
+     * Returns whether the given request is a heartbeat, UIDL or push request of a Vaadin UI.
+     */
+    static boolean isVaadinRequest(HttpServletRequest request) {
+        // Relative to the Vaadin servlet, which is mapped to /vaadinServlet/* by the Vaadin Spring integration
+        String path = request.getPathInfo();
+        if (path == null) {
+            return false;
+        }
+        if (path.equals("/PUSH") || path.startsWith("/PUSH/")) {
+            return true;
+        }
+        return "POST".equals(request.getMethod()) && (path.startsWith("/UIDL/") || path.startsWith("/HEARTBEAT/"));
+    }
+
+    private static boolean isAuthenticated(Authentication authentication) {
+        return authentication != null && authentication.isAuthenticated()
+            && !(authentication instanceof AnonymousAuthenticationToken);
+    }
+}
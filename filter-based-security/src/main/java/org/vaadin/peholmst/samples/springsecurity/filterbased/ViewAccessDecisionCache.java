@@ -0,0 +1,65 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.security.core.Authentication;
+
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Caches the view access decisions of one session. The decisions are only valid for the {@link Authentication} they
+ * were made for, so they are discarded as soon as they are looked up or stored with another authentication instance,
+ * e.g. after a login or when the authorities of the user have been changed.
+ */
+public final class ViewAccessDecisionCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Not serialized, the decisions are simply made again after the session has been deserialized
+    private transient volatile Decisions decisions;
+
+    private ViewAccessDecisionCache() {
+    }
+
+    /**
+     * Returns the cache of the given session, creating it if needed. The session must be locked.
+     */
+    public static ViewAccessDecisionCache of(VaadinSession session) {
+        ViewAccessDecisionCache cache = session.getAttribute(ViewAccessDecisionCache.class);
+        if (cache == null) {
+            cache = new ViewAccessDecisionCache();
+            session.setAttribute(ViewAccessDecisionCache.class, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cached decision for the given view, or null if there is no decision for the given authentication.
+     */
+    public Boolean get(Authentication authentication, String beanName) {
+        Decisions current = decisions;
+        return current != null && current.authentication == authentication ? current.granted.get(beanName) : null;
+    }
+
+    public void put(Authentication authentication, String beanName, boolean granted) {
+        Decisions current = decisions;
+        if (current == null || current.authentication != authentication) {
+            current = new Decisions(authentication);
+            decisions = current;
+        }
+        current.granted.put(beanName, granted);
+    }
+
+    private static final class Decisions {
+
+        final Authentication authentication;
+
+        final ConcurrentMap<String, Boolean> granted = new ConcurrentHashMap<>();
+
+        Decisions(Authentication authentication) {
+            this.authentication = authentication;
+        }
+    }
+}
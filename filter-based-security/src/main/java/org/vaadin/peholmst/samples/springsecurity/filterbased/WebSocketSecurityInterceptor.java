@@ -0,0 +1,77 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpSession;
+
+import org.atmosphere.cpr.Action;
+import org.atmosphere.cpr.AtmosphereInterceptorAdapter;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+
+/**
+ * Binds the security context to the messages of websocket push connections. The upgrade request goes through the
+ * security filters like any other request, but the messages that arrive over the socket afterwards never see the
+ * servlet filter chain.
+ * <p>
+ * The context is read from the HTTP session of the handshake for every message, so that changed authorities apply
+ * right away. A socket whose session has been invalidated or logged out meanwhile is closed on its next message;
+ * {@link SecuredUI} closes it as soon as the session ends.
+ * <p>
+ * Atmosphere creates its interceptors itself, see {@link CustomServlet}.
+ */
+public class WebSocketSecurityInterceptor extends AtmosphereInterceptorAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketSecurityInterceptor.class);
+
+    @Override
+    public Action inspect(AtmosphereResource resource) {
+        if (resource.transport() != AtmosphereResource.TRANSPORT.WEBSOCKET) {
+            return Action.CONTINUE; // Any other transport comes in as HTTP requests through the filter chain
+        }
+        SecurityContext context = findContext(resource);
+        if (context == null) {
+            try {
+                resource.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close websocket of unauthenticated session", ex);
+            }
+            return Action.CANCELLED;
+        }
+        SecurityContextHolder.setContext(context);
+        return Action.CONTINUE;
+    }
+
+    @Override
+    public void postInspect(AtmosphereResource resource) {
+        if (resource.transport() == AtmosphereResource.TRANSPORT.WEBSOCKET) {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private static SecurityContext findContext(AtmosphereResource resource) {
+        try {
+            HttpSession session = resource.session(false);
+            if (session == null) {
+                return null;
+            }
+            Object context = session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+            if (context instanceof SecurityContext) {
+                Authentication authentication = ((SecurityContext) context).getAuthentication();
+                if (authentication != null && authentication.isAuthenticated()
+                    && !(authentication instanceof AnonymousAuthenticationToken)) {
+                    return (SecurityContext) context;
+                }
+            }
+            return null;
+        } catch (IllegalStateException ex) {
+            return null; // Invalidated
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ApiTokenServiceTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(
+        "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+
+    private static final String OTHER_KEY = Base64.getEncoder().encodeToString(
+        "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.US_ASCII));
+
+    @Test
+    public void issuedTokenIsVerifiedOnEveryNodeWithTheSameKey() {
+        ApiTokenService issuer = createService(KEY, 300);
+        String token = issuer.issue(createAuthentication("admin", "ROLE_ADMIN", "ROLE_USER"));
+
+        for (ApiTokenService verifier : new ApiTokenService[] { issuer, createService(KEY, 300) }) {
+            Authentication authentication = verifier.verify(token);
+            assertNotNull(authentication);
+            assertEquals("admin", authentication.getName());
+            assertEquals(AuthorityUtils.createAuthorityList("ROLE_ADMIN", "ROLE_USER"),
+                authentication.getAuthorities());
+            assertTrue(authentication.isAuthenticated());
+        }
+        assertEquals(1, issuer.getIssuedTokens());
+        assertEquals(1, issuer.getAcceptedTokens());
+    }
+
+    @Test
+    public void tokenSignedWithAnotherKeyIsRejected() {
+        String token = createService(OTHER_KEY, 300).issue(createAuthentication("admin", "ROLE_ADMIN"));
+        ApiTokenService service = createService(KEY, 300);
+        assertNull(service.verify(token));
+        assertEquals(1, service.getRejectedTokens());
+    }
+
+    @Test
+    public void expiredTokenIsRejected() {
+        ApiTokenService service = createService(KEY, -1);
+        assertNull(service.verify(service.issue(createAuthentication("admin", "ROLE_ADMIN"))));
+    }
+
+    @Test
+    public void tamperedTokensAreRejected() {
+        ApiTokenService service = createService(KEY, 300);
+        String token = service.issue(createAuthentication("user", "ROLE_USER"));
+        int separator = token.indexOf('.');
+        String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, separator)),
+            StandardCharsets.UTF_8);
+
+        String elevated = payload.replace("ROLE_USER", "ROLE_ADMIN");
+        assertNull(service.verify(encode(elevated) + token.substring(separator)));
+        String extended = "9" + payload;
+        assertNull(service.verify(encode(extended) + token.substring(separator)));
+        String signature = token.substring(separator + 1);
+        String flipped = (signature.charAt(0) == 'A' ? 'B' : 'A') + signature.substring(1);
+        assertNull(service.verify(token.substring(0, separator + 1) + flipped));
+        assertNull(service.verify(token.substring(0, separator + 1)));
+        assertNull(service.verify(token + "A"));
+        assertEquals(5, service.getRejectedTokens());
+    }
+
+    @Test
+    public void malformedTokensAreRejected() {
+        ApiTokenService service = createService(KEY, 300);
+        String[] tokens = { "", ".", "no-separator", "a.b.c", "!!!.???", "eyJ9.",
+            ".AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA" };
+        for (String token : tokens) {
+            assertNull(token, service.verify(token));
+        }
+        // Correctly signed, but not a payload that the service issues
+        for (String payload : new String[] { "", "123", "123:", "notanumber::admin", ":ROLE_ADMIN,:admin" }) {
+            assertNull(payload, service.verify(encode(payload) + '.' + sign(payload)));
+        }
+        assertEquals(tokens.length + 5, service.getRejectedTokens());
+    }
+
+    @Test
+    public void usernamesMayContainSeparators() {
+        ApiTokenService service = createService(KEY, 300);
+        Authentication authentication = service.verify(service.issue(createAuthentication("a:b,c.d", "ROLE_USER")));
+        assertEquals("a:b,c.d", authentication.getName());
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_USER"), authentication.getAuthorities());
+    }
+
+    @Test
+    public void authoritiesWithSeparatorsAreLeftOut() {
+        ApiTokenService service = createService(KEY, 300);
+        Authentication authentication = service.verify(
+            service.issue(createAuthentication("user", "ROLE_USER", "ROLE_X:ROLE_ADMIN", "ROLE_A,ROLE_ADMIN")));
+        assertEquals("user", authentication.getName());
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_USER"), authentication.getAuthorities());
+    }
+
+    @Test
+    public void tokensAreSignedAndVerifiedConcurrently() throws Exception {
+        ApiTokenService service = createService(KEY, 300);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                String username = "user" + t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; ++i) {
+                        String token = service.issue(createAuthentication(username + i, "ROLE_USER"));
+                        assertEquals(username + i, service.verify(token).getName());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(20_000, service.getAcceptedTokens());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shortKeysAreRefused() {
+        createService(Base64.getEncoder().encodeToString(new byte[16]), 300);
+    }
+
+    @Test
+    public void randomKeyIsUsedWithoutConfiguration() {
+        ApiTokenService service = createService("", 300);
+        assertNotNull(service.verify(service.issue(createAuthentication("admin", "ROLE_ADMIN"))));
+        assertNull(createService("", 300).verify(service.issue(createAuthentication("admin", "ROLE_ADMIN"))));
+    }
+
+    private static ApiTokenService createService(String key, long validitySeconds) {
+        ApiTokenService service = new ApiTokenService();
+        ReflectionTestUtils.setField(service, "encodedKey", key);
+        ReflectionTestUtils.setField(service, "validitySeconds", validitySeconds);
+        service.init();
+        return service;
+    }
+
+    private static Authentication createAuthentication(String username, String... authorities) {
+        return SessionAuthentication.of(username, AuthorityUtils.createAuthorityList(authorities));
+    }
+
+    private static String encode(String payload) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(Base64.getDecoder().decode(KEY), "HmacSHA256"));
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(mac.doFinal(encode(payload).getBytes(StandardCharsets.US_ASCII)));
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.annotation.SecuredAnnotationSecurityMetadataSource;
+import org.springframework.security.access.intercept.aopalliance.MethodSecurityInterceptor;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.access.vote.RoleVoter;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class BackendBatchTest {
+
+    private final RecordingBackendService service = new RecordingBackendService();
+
+    private final BackgroundExecutor backgroundExecutor = new BackgroundExecutor();
+
+    private final AtomicInteger proxiedCalls = new AtomicInteger();
+
+    private BackendBatch batch;
+
+    @Before
+    public void setUp() throws Exception {
+        MethodSecurityInterceptor template = new MethodSecurityInterceptor();
+        template.setSecurityMetadataSource(new SecuredAnnotationSecurityMetadataSource());
+        template.setAccessDecisionManager(
+            new AffirmativeBased(Collections.<AccessDecisionVoter<?>>singletonList(new RoleVoter())));
+        template.setAuthenticationManager(mock(AuthenticationManager.class));
+        CompiledSecuredMethodInterceptor interceptor = new CompiledSecuredMethodInterceptor(template);
+
+        ProxyFactory proxyFactory = new ProxyFactory(service);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(interceptor);
+        proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+            proxiedCalls.incrementAndGet();
+            return invocation.proceed();
+        });
+
+        ReflectionTestUtils.setField(backgroundExecutor, "threads", 4);
+        ReflectionTestUtils.setField(backgroundExecutor, "queueDepth", 100);
+        backgroundExecutor.start();
+
+        batch = new BackendBatch();
+        batch.backendService = (BackendService) proxyFactory.getProxy();
+        batch.methodSecurityInterceptor = interceptor;
+        batch.backgroundExecutor = backgroundExecutor;
+        ReflectionTestUtils.setField(batch, "maxOperations", 1000);
+        ReflectionTestUtils.setField(batch, "maxParallelism", 4);
+        batch.init();
+    }
+
+    @After
+    public void tearDown() {
+        backgroundExecutor.stop();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void operationsOfOtherRolesAreDeniedAndTheRestIsRun() {
+        login("user", "ROLE_USER");
+        List<BackendBatch.Result> results = batch.invoke(
+            Arrays.asList("userMethod", "adminMethod", "userMethod", "adminMethod"), 1);
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i += 2) {
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals("userMethod", results.get(i).getOperation());
+            assertEquals("Hello from a user method", results.get(i).getValue());
+            assertFalse(results.get(i + 1).isSuccessful());
+            assertEquals("adminMethod", results.get(i + 1).getOperation());
+            assertEquals("Access is denied", results.get(i + 1).getError());
+        }
+        assertEquals(2, batch.getInvokedOperations());
+        assertEquals(2, batch.getDeniedOperations());
+        assertEquals(2, batch.getAuthorizations());
+        assertEquals(2, service.calls.get());
+        assertEquals("Operations bypass the proxy", 0, proxiedCalls.get());
+    }
+
+    @Test
+    public void everythingIsDeniedWithoutAuthentication() {
+        for (BackendBatch.Result result : batch.invoke(Arrays.asList("userMethod", "adminMethod"), 2)) {
+            assertEquals("Access is denied", result.getError());
+        }
+        assertEquals(0, service.calls.get());
+    }
+
+    @Test
+    public void parallelBatchCompletesInOrderOnSeveralThreads() {
+        login("admin", "ROLE_ADMIN");
+        List<String> operations = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            operations.add(i % 3 == 0 ? "adminMethod" : "userMethod");
+        }
+        List<BackendBatch.Result> results = batch.invoke(operations, 16);
+
+        assertEquals(operations.size(), results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            assertEquals(operations.get(i), results.get(i).getOperation());
+            assertTrue(results.get(i).toString(), results.get(i).isSuccessful());
+        }
+        assertEquals(200, service.calls.get());
+        assertTrue("Helpers took part: " + service.threads, service.threads.size() > 1);
+        assertTrue("Parallelism is capped: " + service.threads, service.threads.size() <= 4);
+        assertEquals("Once per distinct set of roles", 2, batch.getAuthorizations());
+    }
+
+    @Test
+    public void callerRunsTheBatchWhenHelpersAreRejected() {
+        login("user", "ROLE_USER");
+        backgroundExecutor.stop();
+        List<BackendBatch.Result> results = batch.invoke(Collections.nCopies(50, "userMethod"), 4);
+
+        assertEquals(50, results.size());
+        for (BackendBatch.Result result : results) {
+            assertTrue(result.isSuccessful());
+        }
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), service.threads);
+    }
+
+    @Test
+    public void failingOperationsOnlyFailThemselves() {
+        login("user", "ROLE_USER");
+        service.failing = true;
+        List<BackendBatch.Result> results = batch.invoke(Collections.nCopies(20, "userMethod"), 4);
+
+        for (BackendBatch.Result result : results) {
+            assertEquals("Backend is down", result.getError());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOperationsAreRefused() {
+        login("admin", "ROLE_ADMIN");
+        batch.invoke(Arrays.asList("userMethod", "toString"), 1);
+    }
+
+    @Test
+    public void largeBatchesAreRefused() {
+        login("admin", "ROLE_ADMIN");
+        try {
+            batch.invoke(Collections.nCopies(1001, "userMethod"), 1);
+        } catch (IllegalArgumentException ex) {
+            assertEquals(0, service.calls.get());
+            assertEquals(Arrays.asList("adminMethod", "userMethod"), batch.getOperations());
+            return;
+        }
+        throw new AssertionError("Batch was not refused");
+    }
+
+    private static void login(String username, String... authorities) {
+        SecurityContext context = new CompiledSecurityContext();
+        context.setAuthentication(SessionAuthentication.of(username, AuthorityUtils.createAuthorityList(authorities)));
+        SecurityContextHolder.setContext(context);
+    }
+
+    public static class RecordingBackendService extends BackendService {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        volatile boolean failing;
+
+        @Override
+        public String adminMethod() {
+            record();
+            return super.adminMethod();
+        }
+
+        @Override
+        public String userMethod() {
+            record();
+            return super.userMethod();
+        }
+
+        private void record() {
+            calls.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            if (failing) {
+                throw new IllegalStateException("Backend is down");
+            }
+            try {
+                Thread.sleep(2); // Long enough for the helpers to get a share of the batch
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
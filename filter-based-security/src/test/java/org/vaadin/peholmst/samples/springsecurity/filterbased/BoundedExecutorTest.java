@@ -0,0 +1,130 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.util.CurrentInstance;
+
+public class BoundedExecutorTest {
+
+    private BoundedExecutor executor;
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        CurrentInstance.clearAll();
+    }
+
+    @Test
+    public void atMostTheGivenNumberOfTasksRunAtTheSameTime() throws Exception {
+        executor = new BoundedExecutor("test", 2, 10);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 12; ++i) {
+            int task = i;
+            results.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(10);
+                running.decrementAndGet();
+                return task;
+            }));
+        }
+        for (int i = 0; i < results.size(); ++i) {
+            assertEquals(i, (int) results.get(i).get(1, TimeUnit.MINUTES));
+        }
+        assertTrue("At most two tasks at once: " + maxRunning, maxRunning.get() <= 2);
+        assertEquals(0, executor.getPendingTasks());
+        assertEquals(0, executor.getRejectedTasks());
+    }
+
+    @Test
+    public void tasksBeyondTheQueueAreRejected() throws Exception {
+        executor = new BoundedExecutor("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = executor.submit(() -> await(release));
+        CompletableFuture<String> queued = executor.submit(() -> await(release));
+        CompletableFuture<String> rejected = executor.submit(() -> await(release));
+
+        assertEquals(RejectedExecutionException.class, failureOf(rejected).getClass());
+        assertEquals(1, executor.getRejectedTasks());
+        assertEquals(2, executor.getPendingTasks());
+        release.countDown();
+        assertEquals("done", running.get(1, TimeUnit.MINUTES));
+        assertEquals("done", queued.get(1, TimeUnit.MINUTES));
+        assertEquals("done", executor.submit(() -> "done").get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void tasksDoNotInheritTheCurrentInstancesOfTheCaller() throws Exception {
+        VaadinSession session = mock(VaadinSession.class);
+        VaadinSession.setCurrent(session);
+        // On platform threads, the worker is created here and inherits the current instances of this thread
+        executor = new BoundedExecutor("test", 1, 1);
+        assertNull(executor.submit(VaadinSession::getCurrent).get(1, TimeUnit.MINUTES));
+        assertSame(session, VaadinSession.getCurrent());
+    }
+
+    @Test
+    public void failuresCompleteTheFutureExceptionally() throws Exception {
+        executor = new BoundedExecutor("test", 1, 1);
+        IllegalStateException failure = new IllegalStateException("Failed");
+        assertSame(failure, failureOf(executor.submit(() -> {
+            throw failure;
+        })));
+        assertEquals(0, executor.getPendingTasks());
+    }
+
+    @Test
+    public void tasksAreRejectedAfterShutdown() throws Exception {
+        executor = new BoundedExecutor("test", 1, 1);
+        executor.shutdown();
+        assertEquals(RejectedExecutionException.class, failureOf(executor.submit(() -> "done")).getClass());
+        assertEquals(0, executor.getPendingTasks());
+        assertEquals(1, executor.getRejectedTasks());
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> result) throws Exception {
+        try {
+            result.get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+        fail("Task did not fail");
+        return null;
+    }
+
+    private static String await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return "done";
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
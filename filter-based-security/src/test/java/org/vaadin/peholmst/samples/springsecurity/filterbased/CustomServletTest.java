@@ -0,0 +1,50 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import javax.servlet.ServletConfig;
+
+import org.atmosphere.cpr.ApplicationConfig;
+import org.junit.Test;
+import org.springframework.mock.web.MockServletConfig;
+
+public class CustomServletTest {
+
+    private static final String INTERCEPTOR = WebSocketSecurityInterceptor.class.getName();
+
+    @Test
+    public void securityInterceptorIsAddedWithoutOtherInterceptors() {
+        MockServletConfig servletConfig = new MockServletConfig("vaadinServlet");
+        servletConfig.addInitParameter("productionMode", "true");
+        ServletConfig config = CustomServlet.withSecurityInterceptor(servletConfig);
+
+        assertEquals(INTERCEPTOR, config.getInitParameter(ApplicationConfig.ATMOSPHERE_INTERCEPTORS));
+        assertEquals("true", config.getInitParameter("productionMode"));
+        assertTrue(
+            Collections.list(config.getInitParameterNames()).contains(ApplicationConfig.ATMOSPHERE_INTERCEPTORS));
+        assertEquals("vaadinServlet", config.getServletName());
+    }
+
+    @Test
+    public void configuredInterceptorsAreKept() {
+        MockServletConfig servletConfig = new MockServletConfig("vaadinServlet");
+        servletConfig.addInitParameter(ApplicationConfig.ATMOSPHERE_INTERCEPTORS, "com.example.A,com.example.B");
+        ServletConfig config = CustomServlet.withSecurityInterceptor(servletConfig);
+
+        assertEquals("com.example.A,com.example.B," + INTERCEPTOR,
+            config.getInitParameter(ApplicationConfig.ATMOSPHERE_INTERCEPTORS));
+        assertEquals(1, Collections.frequency(Collections.list(config.getInitParameterNames()),
+            ApplicationConfig.ATMOSPHERE_INTERCEPTORS));
+    }
+
+    @Test
+    public void blankInterceptorsAreReplaced() {
+        MockServletConfig servletConfig = new MockServletConfig("vaadinServlet");
+        servletConfig.addInitParameter(ApplicationConfig.ATMOSPHERE_INTERCEPTORS, " ");
+        assertEquals(INTERCEPTOR, CustomServlet.withSecurityInterceptor(servletConfig)
+            .getInitParameter(ApplicationConfig.ATMOSPHERE_INTERCEPTORS));
+    }
+}
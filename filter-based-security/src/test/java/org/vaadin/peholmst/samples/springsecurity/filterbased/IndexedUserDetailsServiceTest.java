@@ -0,0 +1,82 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class IndexedUserDetailsServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AdaptivePasswordEncoder passwordEncoder = new AdaptivePasswordEncoder();
+
+    private final IndexedUserDetailsService service = new IndexedUserDetailsService();
+
+    @Before
+    public void setUp() throws Exception {
+        ReflectionTestUtils.setField(passwordEncoder, "configuredStrength", 5);
+        passwordEncoder.init();
+        service.passwordEncoder = passwordEncoder;
+        ReflectionTestUtils.setField(service, "path", folder.getRoot().toPath().resolve("users.db").toString());
+        ReflectionTestUtils.setField(service, "seed",
+            new String[] { "admin:admin:ROLE_ADMIN", "user:user:ROLE_USER" });
+        ReflectionTestUtils.setField(service, "cacheSize", 100L);
+        service.init();
+    }
+
+    @Test
+    public void changedAccountsKeepTheirChanges() {
+        service.updateAuthorities("User", "ROLE_USER", "ROLE_ADMIN");
+        service.setEnabled("user", false);
+
+        UserDetails user = service.loadUserByUsername("USER");
+        assertEquals("user", user.getUsername());
+        assertFalse(user.isEnabled());
+        assertEquals(new HashSet<>(Arrays.asList("ROLE_USER", "ROLE_ADMIN")),
+            AuthorityUtils.authorityListToSet(user.getAuthorities()));
+        assertTrue(service.loadUserByUsername("admin").isEnabled());
+    }
+
+    @Test
+    public void upgradedPasswordsTakeEffectForChangedAccounts() {
+        service.loadUserByUsername("admin"); // Cached before and after the change
+        service.setEnabled("admin", false);
+
+        String upgraded = new BCryptPasswordEncoder(6).encode("admin");
+        assertEquals(1, service.updatePasswords(Collections.singletonMap("admin", upgraded)));
+
+        UserDetails admin = service.loadUserByUsername("admin");
+        assertEquals(upgraded, admin.getPassword());
+        assertFalse(admin.isEnabled());
+        assertEquals(Collections.singleton("ROLE_ADMIN"), AuthorityUtils.authorityListToSet(admin.getAuthorities()));
+    }
+
+    @Test
+    public void changesAfterAnUpgradeKeepTheUpgradedPassword() {
+        String upgraded = new BCryptPasswordEncoder(6).encode("user");
+        service.updatePasswords(Collections.singletonMap("user", upgraded));
+        service.updateAuthorities("user", "ROLE_USER", "ROLE_ADMIN");
+
+        assertEquals(upgraded, service.loadUserByUsername("user").getPassword());
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void unknownAccountsCanNotBeChanged() {
+        service.setEnabled("nobody", false);
+    }
+}
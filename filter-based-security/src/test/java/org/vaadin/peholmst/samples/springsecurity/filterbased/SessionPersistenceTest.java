@@ -0,0 +1,192 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+public class SessionPersistenceTest {
+
+    private static final String COOKIE = "SECURITY_CONTEXT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSessionStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new FileSessionStore();
+        ReflectionTestUtils.setField(store, "directory", folder.getRoot().getPath());
+        ReflectionTestUtils.setField(store, "timeoutSeconds", 1800L);
+        store.init();
+    }
+
+    @Test
+    public void userIsRestoredOnAnotherNode() {
+        SessionPersistence first = createNode();
+        Cookie cookie = logIn(first, new MockHttpSession());
+        first.flush();
+
+        Authentication authentication = restore(createNode(), cookie);
+        assertNotNull(authentication);
+        assertEquals("user", authentication.getName());
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_USER"), authentication.getAuthorities());
+    }
+
+    @Test
+    public void idleTimeoutDeletesTheRecord() {
+        SessionPersistence node = createNode();
+        MockHttpSession session = new MockHttpSession();
+        Cookie cookie = logIn(node, session);
+        node.flush();
+
+        timeOut(node, session);
+        node.flush();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(createNode().restore(requestWith(cookie), response));
+        assertEquals("The browser is told to forget the id", 0, response.getCookie(COOKIE).getMaxAge());
+    }
+
+    @Test
+    public void expiredSessionIsNotRestoredBeforeTheRecordIsDeleted() {
+        SessionPersistence node = createNode();
+        MockHttpSession session = new MockHttpSession();
+        Cookie cookie = logIn(node, session);
+        node.flush();
+        timeOut(node, session);
+
+        Logger logger = (Logger) LoggerFactory.getLogger(SessionPersistence.class);
+        ListAppender<ILoggingEvent> warnings = new ListAppender<>();
+        warnings.start();
+        logger.addAppender(warnings);
+        try {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertNull(node.restore(requestWith(cookie), response));
+            assertEquals(0, response.getCookie(COOKIE).getMaxAge());
+        } finally {
+            logger.detachAppender(warnings);
+        }
+        assertEquals(Collections.emptyList(), warnings.list);
+    }
+
+    @Test
+    public void sessionsEndingForOtherReasonsKeepTheirRecords() {
+        SessionPersistence node = createNode();
+        MockHttpSession session = new MockHttpSession();
+        Cookie cookie = logIn(node, session);
+        node.flush();
+
+        // E.g. the node shuts down, the user continues on another node
+        node.sessionDestroyed(new HttpSessionEvent(session));
+        node.flush();
+
+        assertNotNull(restore(createNode(), cookie));
+    }
+
+    @Test
+    public void recordIsKeptWhenTheUserHasMovedOnToAnotherNode() throws InterruptedException {
+        SessionPersistence first = createNode();
+        MockHttpSession session = new MockHttpSession();
+        Cookie cookie = logIn(first, session);
+        first.flush();
+
+        Thread.sleep(20); // The store has millisecond timestamps
+        SessionPersistence second = createNode();
+        assertNotNull(restore(second, cookie));
+        second.flush();
+
+        timeOut(first, session);
+        first.flush();
+
+        assertNotNull(restore(createNode(), cookie));
+    }
+
+    @Test
+    public void loggingOutDeletesTheRecord() {
+        SessionPersistence node = createNode();
+        MockHttpSession session = new MockHttpSession();
+        Cookie cookie = logIn(node, session);
+        node.flush();
+
+        node.discard(session);
+        node.sessionDestroyed(new HttpSessionEvent(session));
+        node.flush();
+
+        assertNull(restore(createNode(), cookie));
+    }
+
+    @Test
+    public void onlyAccessedSessionsAreTouched() {
+        SessionPersistence node = createNode();
+        logIn(node, new MockHttpSession());
+        node.flush();
+        assertEquals(0, node.getPendingOperations());
+
+        node.touchAccessedSince(System.currentTimeMillis() + 1000);
+        assertEquals(0, node.getPendingOperations());
+        node.touchAccessedSince(0);
+        assertEquals(1, node.getPendingOperations());
+    }
+
+    private SessionPersistence createNode() {
+        SessionPersistence node = new SessionPersistence();
+        node.sessionStore = store;
+        ReflectionTestUtils.setField(node, "cookieName", COOKIE);
+        ReflectionTestUtils.setField(node, "writeBehindMillis", 200L);
+        ReflectionTestUtils.setField(node, "timeoutSeconds", 1800L);
+        return node;
+    }
+
+    private static Cookie logIn(SessionPersistence node, MockHttpSession session) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        node.issue(createAuthentication(), request, response);
+        Cookie cookie = response.getCookie(COOKIE);
+        assertNotNull(cookie);
+        return cookie;
+    }
+
+    private static Authentication restore(SessionPersistence node, Cookie cookie) {
+        return node.restore(requestWith(cookie), new MockHttpServletResponse());
+    }
+
+    private static MockHttpServletRequest requestWith(Cookie cookie) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(cookie);
+        return request;
+    }
+
+    private static void timeOut(SessionPersistence node, MockHttpSession session) {
+        session.setMaxInactiveInterval(60);
+        ReflectionTestUtils.setField(session, "lastAccessedTime", System.currentTimeMillis() - 61_000);
+        node.sessionDestroyed(new HttpSessionEvent(session));
+    }
+
+    private static Authentication createAuthentication() {
+        return SessionAuthentication.of("user", AuthorityUtils.createAuthorityList("ROLE_USER"));
+    }
+}
@@ -0,0 +1,86 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class StaticResourceFilterTest {
+
+    private static final String WIDGETSET = "/VAADIN/widgetsets/com.vaadin.DefaultWidgetSet/";
+
+    // Compiled by GWT, named after its content
+    private static final String FINGERPRINTED = WIDGETSET + "A577A9DD7A8FD9ECCF2D3EE4AB361061.cache.js";
+
+    // Loaded first, refers to the compiled files of the current build
+    private static final String UNVERSIONED = WIDGETSET + "com.vaadin.DefaultWidgetSet.nocache.js";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StaticResourceFilter filter = new StaticResourceFilter();
+
+    @Before
+    public void setUp() throws Exception {
+        ReflectionTestUtils.setField(filter, "cacheDirectory", folder.getRoot().toString());
+        ReflectionTestUtils.setField(filter, "maxAge", 3600L);
+        filter.initFilterBean();
+    }
+
+    @Test
+    public void fingerprintedResourcesAreImmutable() throws Exception {
+        assertEquals("public, max-age=31536000, immutable", get(FINGERPRINTED, null).getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void versionParameterDoesNotMakeResourcesImmutable() throws Exception {
+        assertEquals("public, max-age=3600", get(UNVERSIONED, null).getHeader("Cache-Control"));
+        // Vaadin adds its own version, which stays the same when the application changes
+        assertEquals("public, max-age=3600", get(UNVERSIONED, "7.6.3").getHeader("Cache-Control"));
+        assertEquals("public, max-age=3600", get(UNVERSIONED, "x").getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void resourcesAreRevalidatedWithTheirETag() throws Exception {
+        MockHttpServletResponse first = get(UNVERSIONED, "7.6.3");
+        assertEquals(200, first.getStatus());
+
+        MockHttpServletRequest request = createRequest(UNVERSIONED, "7.6.3");
+        request.addHeader("If-None-Match", first.getHeader("ETag"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        assertEquals(304, response.getStatus());
+        assertEquals("public, max-age=3600", response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void unknownResourcesArePassedOn() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest(WIDGETSET + "missing.cache.js", "x"), response, chain);
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Cache-Control"));
+        assertEquals(WIDGETSET + "missing.cache.js", ((MockHttpServletRequest) chain.getRequest()).getRequestURI());
+    }
+
+    private MockHttpServletResponse get(String path, String version) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest(path, version), response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest createRequest(String path, String version) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        if (version != null) {
+            request.setParameter("v", version);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,121 @@
+package org.vaadin.peholmst.samples.springsecurity.filterbased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    // One tick per millisecond, so deadlines are ticks
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void timeoutsExpireAtTheirDeadlineOnEveryLevel() {
+        // Either side of the slot boundaries of every level, and beyond what the wheel can hold
+        long[] deadlines = { 1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 262_143, 262_144, 262_145, 16_777_215,
+            16_777_216, 16_777_217, 40_000_000 };
+        TimingWheel<Long> wheel = new TimingWheel<>(1, START);
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, START + deadline);
+        }
+        assertEquals(deadlines.length, wheel.size());
+
+        long now = 0;
+        for (long deadline : deadlines) {
+            assertEquals("Nothing expires before " + deadline, Collections.emptyList(),
+                wheel.advance(START + deadline - 1));
+            assertEquals(Collections.singletonList(deadline), wheel.advance(START + deadline));
+            now = deadline;
+        }
+        assertEquals(0, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.advance(START + now + 100_000_000));
+    }
+
+    @Test
+    public void randomTimeoutsExpireInTheRightAdvance() {
+        Random random = new Random(42);
+        TimingWheel<Long> wheel = new TimingWheel<>(1, START);
+        Map<Long, Integer> scheduled = new HashMap<>();
+        for (int i = 0; i < 20_000; ++i) {
+            long deadline = 1 + (long) (Math.pow(random.nextDouble(), 3) * 20_000_000);
+            wheel.schedule(deadline, START + deadline);
+            scheduled.merge(deadline, 1, Integer::sum);
+        }
+
+        long previous = 0;
+        while (wheel.size() > 0) {
+            long now = previous + 1 + random.nextInt(random.nextBoolean() ? 100 : 100_000);
+            for (long deadline : wheel.advance(START + now)) {
+                // Neither early nor late, i.e. not already due at the previous advance
+                assertTrue(deadline + " expired at " + now, deadline > previous && deadline <= now);
+                scheduled.merge(deadline, -1, (count, one) -> count == 1 ? null : count - 1);
+            }
+            previous = now;
+        }
+        assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    public void deadlinesAreRoundedUpToTheNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, START);
+        wheel.schedule("a", START + 150);
+        assertEquals(Collections.emptyList(), wheel.advance(START + 199));
+        assertEquals(Collections.singletonList("a"), wheel.advance(START + 200));
+
+        // Deadlines in the past expire on the next tick
+        wheel.schedule("b", START);
+        assertEquals(Collections.singletonList("b"), wheel.advance(START + 300));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotExpire() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, START);
+        TimingWheel.Timeout<String> near = wheel.schedule("near", START + 10);
+        TimingWheel.Timeout<String> far = wheel.schedule("far", START + 100_000);
+        wheel.schedule("kept", START + 100_000);
+
+        assertTrue(wheel.cancel(near));
+        assertFalse(wheel.cancel(near));
+        assertTrue(wheel.cancel(far));
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList("kept"), wheel.advance(START + 200_000));
+    }
+
+    @Test
+    public void rescheduledTimeoutsMoveBetweenLevels() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, START);
+        TimingWheel.Timeout<String> first = wheel.schedule("first", START + 10);
+        TimingWheel.Timeout<String> second = wheel.schedule("second", START + 500_000);
+
+        wheel.reschedule(first, START + 300_000);
+        wheel.reschedule(second, START + 20);
+        assertEquals(2, wheel.size());
+        assertEquals(Collections.singletonList("second"), wheel.advance(START + 299_999));
+        assertEquals(Collections.singletonList("first"), wheel.advance(START + 300_000));
+
+        // Expired timeouts can be scheduled again
+        wheel.reschedule(first, START + 300_100);
+        assertEquals(Collections.singletonList("first"), wheel.advance(START + 300_100));
+    }
+
+    @Test
+    public void timeoutsOfOneTickExpireInSchedulingOrder() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, START);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            wheel.schedule(i, START + 5000);
+            values.add(i);
+        }
+        assertEquals(values, wheel.advance(START + 5000));
+        assertEquals(Collections.emptyList(), wheel.advance(START + 10_000));
+    }
+}
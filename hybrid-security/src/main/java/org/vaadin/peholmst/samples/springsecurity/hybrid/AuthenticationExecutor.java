@@ -0,0 +1,74 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs authentication requests in the background, so that an expensive password check does not hold the session
+ * lock of the UI that is logging in. At most {@code login.executor.threads} requests are authenticated at the same
+ * time and at most {@code login.executor.queue-depth} requests wait for their turn. Requests beyond that are rejected
+ * right away instead of piling up, see {@link BoundedExecutor}.
+ * <p>
+ * Logins have an executor of their own, so that background work of logged in users can not keep others from logging
+ * in.
+ */
+@Component
+public class AuthenticationExecutor {
+
+    @Autowired
+    AuthenticationManager authenticationManager;
+
+    @Value("${login.executor.threads:4}")
+    private int threads;
+
+    @Value("${login.executor.queue-depth:100}")
+    private int queueDepth;
+
+    private BoundedExecutor executor;
+
+    @PostConstruct
+    void start() {
+        executor = new BoundedExecutor("authentication", threads, queueDepth);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Authenticates the given request in the background. The returned future completes with the authenticated token,
+     * or exceptionally with an {@link org.springframework.security.core.AuthenticationException} if the request could
+     * not be authenticated, or with a {@link RejectedExecutionException} if there were too many pending requests.
+     */
+    public CompletableFuture<Authentication> authenticate(Authentication request) {
+        return executor.submit(() -> {
+            // Without a session, anything that looks at the security context during the authentication gets an
+            // empty context of this thread instead of the context of some user
+            SecurityContextHolder.setContext(SecurityContextHolder.createEmptyContext());
+            try {
+                return authenticationManager.authenticate(request);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        });
+    }
+
+    public int getPendingAuthentications() {
+        return executor.getPendingTasks();
+    }
+
+    public long getRejectedAuthentications() {
+        return executor.getRejectedTasks();
+    }
+}
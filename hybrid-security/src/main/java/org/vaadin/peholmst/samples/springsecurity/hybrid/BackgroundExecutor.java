@@ -0,0 +1,112 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import com.vaadin.server.ErrorEvent;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Runs work for a UI in the background, as the user of the UI and without holding the session lock, and hands the
+ * result back to the UI through {@link UI#access(Runnable)}. This lets slow, secured backend calls be made from a
+ * listener without blocking every other request of the session while they run.
+ * <p>
+ * The security context of the caller is bound to the worker thread for the duration of the work. At most
+ * {@code background.executor.threads} tasks run at the same time and at most {@code background.executor.queue-depth}
+ * tasks wait for their turn; tasks beyond that are rejected right away, see {@link BoundedExecutor}.
+ */
+@Component
+public class BackgroundExecutor {
+
+    private final LongAdder droppedResults = new LongAdder();
+
+    @Value("${background.executor.threads:4}")
+    private int threads;
+
+    @Value("${background.executor.queue-depth:1000}")
+    private int queueDepth;
+
+    private BoundedExecutor executor;
+
+    @PostConstruct
+    void start() {
+        executor = new BoundedExecutor("background", threads, queueDepth);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs the given work in the background and passes its result to the given consumer through
+     * {@link UI#access(Runnable)} of the current UI. Exceptions, such as the
+     * {@link org.springframework.security.access.AccessDeniedException} of a secured method, and rejections go to the
+     * error handler of the UI instead. Results for UIs that have been closed meanwhile are dropped.
+     * <p>
+     * Must be called by a thread that the UI and the security context of the user are bound to, e.g. a listener.
+     * The returned future completes with the result before it is handed to the UI.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<T> work, Consumer<? super T> resultConsumer) {
+        UI ui = UI.getCurrent();
+        if (ui == null) {
+            throw new IllegalStateException("No UI bound to current thread");
+        }
+        CompletableFuture<T> result = submit(work);
+        result.whenComplete((value, error) -> deliver(ui, () -> {
+            if (error != null) {
+                ErrorEvent.findErrorHandler(ui).error(new ErrorEvent(error));
+            } else {
+                resultConsumer.accept(value);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Runs the given work in the background as the current user, without involving any UI. The returned future
+     * completes exceptionally if the work fails or is rejected.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        SecurityContext context = SecurityContextHolder.getContext();
+        return executor.submit(() -> {
+            SecurityContextHolder.setContext(context);
+            try {
+                return work.get();
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        });
+    }
+
+    public int getPendingTasks() {
+        return executor.getPendingTasks();
+    }
+
+    public long getRejectedTasks() {
+        return executor.getRejectedTasks();
+    }
+
+    public long getDroppedResults() {
+        return droppedResults.sum();
+    }
+
+    private void deliver(UI ui, Runnable delivery) {
+        try {
+            ui.access(delivery);
+        } catch (UIDetachedException ex) {
+            droppedResults.increment();
+        }
+    }
+}
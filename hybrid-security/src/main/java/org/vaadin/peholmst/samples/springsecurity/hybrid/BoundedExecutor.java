@@ -0,0 +1,139 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.util.CurrentInstance;
+
+/**
+ * Runs tasks in the background with bounded concurrency and a bounded backlog. At most the given number of tasks run
+ * at the same time and at most the given queue depth wait for their turn; tasks beyond that are rejected right away
+ * instead of piling up. Virtual threads are used when the JVM supports them, otherwise a fixed pool of platform
+ * threads.
+ * <p>
+ * Tasks run without the Vaadin current instances of the thread that started the worker, and without a security
+ * context unless they bind one themselves.
+ */
+public final class BoundedExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedExecutor.class);
+
+    private final String name;
+
+    private final int threads;
+
+    private final int queueDepth;
+
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    private final Semaphore running;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates an executor whose platform threads, if used, are named after the given name.
+     */
+    public BoundedExecutor(String name, int threads, int queueDepth) {
+        this.name = name;
+        this.threads = threads;
+        this.queueDepth = queueDepth;
+        running = new Semaphore(threads);
+        executor = createExecutor();
+    }
+
+    /**
+     * Runs the given work in the background. The returned future completes with the result of the work, or
+     * exceptionally if the work fails or with a {@link RejectedExecutionException} if there are too many pending tasks
+     * or the executor has been shut down.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (pendingTasks.incrementAndGet() > threads + queueDepth) {
+            pendingTasks.decrementAndGet();
+            rejectedTasks.increment();
+            result.completeExceptionally(new RejectedExecutionException("Too many pending " + name + " tasks"));
+            return result;
+        }
+        try {
+            executor.execute(() -> run(work, result));
+        } catch (RejectedExecutionException ex) {
+            pendingTasks.decrementAndGet();
+            rejectedTasks.increment();
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Interrupts the running tasks and rejects new ones.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getPendingTasks() {
+        return pendingTasks.get();
+    }
+
+    public long getRejectedTasks() {
+        return rejectedTasks.sum();
+    }
+
+    private <T> void run(Supplier<T> work, CompletableFuture<T> result) {
+        // Vaadin keeps its current instances in inheritable thread locals, which new threads get from the request
+        // thread that happened to start them
+        CurrentInstance.clearAll();
+        T value = null;
+        Exception failure = null;
+        try {
+            // Virtual threads are not pooled, so the number of concurrent tasks is limited here
+            running.acquire();
+            try {
+                value = work.get();
+            } finally {
+                running.release();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failure = ex;
+        } catch (RuntimeException ex) {
+            failure = ex;
+        } finally {
+            // Before the result is handed over, so that a task submitted when it arrives is not rejected for this one
+            pendingTasks.decrementAndGet();
+        }
+        if (failure != null) {
+            result.completeExceptionally(failure);
+        } else {
+            result.complete(value);
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        try {
+            ExecutorService virtualThreads = (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info("Running {} tasks on virtual threads", name);
+            return virtualThreads;
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.info("Virtual threads are not available, running {} tasks on {} platform threads", name, threads);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,144 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchyImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Compiles the authorities of an {@link Authentication} into a bit mask, so that checking for an authority is a
+ * single map lookup and bit test. Every authority gets its own bit the first time it is seen. The role hierarchy is
+ * applied when the mask is compiled, which means that e.g. {@code ROLE_ADMIN} also sets the {@code ROLE_USER} bit.
+ */
+public final class CompiledAuthorities {
+
+    /**
+     * Authorities beyond this limit are not given a bit and are checked by scanning the authority collection instead.
+     */
+    public static final int MAX_INDEXED_AUTHORITIES = Long.SIZE;
+
+    /**
+     * Distinct authority sets beyond this limit are not shared, see {@link #intern(Collection)}.
+     */
+    public static final int MAX_INTERNED_AUTHORITY_SETS = 1024;
+
+    private static final ConcurrentMap<String, Integer> INDEX = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<List<String>, List<GrantedAuthority>> AUTHORITY_SETS = new ConcurrentHashMap<>();
+
+    private static final RoleHierarchy ROLE_HIERARCHY = createRoleHierarchy();
+
+    private CompiledAuthorities() {
+    }
+
+    private static RoleHierarchy createRoleHierarchy() {
+        RoleHierarchyImpl roleHierarchy = new RoleHierarchyImpl();
+        roleHierarchy.setHierarchy("ROLE_ADMIN > ROLE_USER");
+        return roleHierarchy;
+    }
+
+    public static RoleHierarchy getRoleHierarchy() {
+        return ROLE_HIERARCHY;
+    }
+
+    /**
+     * Returns the bit index of the given authority, or -1 if the authority has not been indexed.
+     */
+    public static int indexOf(String authority) {
+        Integer index = INDEX.get(authority);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns a mask with a bit set for every authority reachable from the authorities of the given authentication.
+     */
+    public static long compile(Authentication authentication) {
+        if (authentication == null) {
+            return 0L;
+        }
+        long mask = 0L;
+        for (GrantedAuthority authority : ROLE_HIERARCHY
+            .getReachableGrantedAuthorities(authentication.getAuthorities())) {
+            int index = register(authority.getAuthority());
+            if (index >= 0) {
+                mask |= 1L << index;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Checks the given authority against a mask returned by {@link #compile(Authentication)}. Authorities that could
+     * not be indexed are looked up from the authentication, applying the role hierarchy like the mask does.
+     */
+    public static boolean hasAuthority(long mask, Authentication authentication, String authority) {
+        int index = indexOf(authority);
+        if (index >= 0) {
+            return (mask & (1L << index)) != 0;
+        }
+        return authentication != null
+            && contains(ROLE_HIERARCHY.getReachableGrantedAuthorities(authentication.getAuthorities()), authority);
+    }
+
+    private static boolean contains(Collection<? extends GrantedAuthority> authorities, String authority) {
+        for (GrantedAuthority candidate : authorities) {
+            if (authority.equals(candidate.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an unmodifiable list of the given authorities in a canonical order. Equal sets of authorities share the
+     * same list, so that e.g. every session of an ordinary user refers to one list instead of keeping a copy.
+     */
+    public static List<GrantedAuthority> intern(Collection<? extends GrantedAuthority> authorities) {
+        List<String> key = new ArrayList<>(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            if (authority.getAuthority() == null) {
+                return Collections.unmodifiableList(new ArrayList<>(authorities)); // Complex authorities are not shared
+            }
+            key.add(authority.getAuthority());
+        }
+        Collections.sort(key);
+        List<GrantedAuthority> interned = AUTHORITY_SETS.get(key);
+        if (interned != null) {
+            return interned;
+        }
+        List<GrantedAuthority> sorted = new ArrayList<>(authorities);
+        sorted.sort((a, b) -> a.getAuthority().compareTo(b.getAuthority()));
+        if (AUTHORITY_SETS.size() >= MAX_INTERNED_AUTHORITY_SETS) {
+            return Collections.unmodifiableList(sorted);
+        }
+        List<GrantedAuthority> existing = AUTHORITY_SETS.putIfAbsent(key, Collections.unmodifiableList(sorted));
+        return existing != null ? existing : AUTHORITY_SETS.get(key);
+    }
+
+    /**
+     * Returns the bit index of the given authority, indexing it if needed. Returns -1 if the authority could not be
+     * indexed.
+     */
+    public static int register(String authority) {
+        if (authority == null) {
+            return -1; // Complex authorities can not be indexed
+        }
+        int index = indexOf(authority);
+        if (index >= 0) {
+            return index;
+        }
+        synchronized (INDEX) {
+            if (INDEX.size() >= MAX_INDEXED_AUTHORITIES) {
+                return indexOf(authority);
+            }
+            return INDEX.computeIfAbsent(authority, key -> INDEX.size());
+        }
+    }
+}
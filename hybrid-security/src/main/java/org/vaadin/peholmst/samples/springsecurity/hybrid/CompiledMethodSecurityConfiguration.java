@@ -0,0 +1,19 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.access.intercept.aopalliance.MethodSecurityInterceptor;
+import org.springframework.security.config.annotation.method.configuration.GlobalMethodSecurityConfiguration;
+
+/**
+ * Replaces the standard method security interceptor with a {@link CompiledSecuredMethodInterceptor}. Extend this
+ * class instead of {@link GlobalMethodSecurityConfiguration} and annotate the subclass with
+ * {@code @EnableGlobalMethodSecurity(securedEnabled = true)}.
+ */
+public class CompiledMethodSecurityConfiguration extends GlobalMethodSecurityConfiguration {
+
+    @Bean
+    @Override
+    public CompiledSecuredMethodInterceptor methodSecurityInterceptor() throws Exception {
+        return new CompiledSecuredMethodInterceptor((MethodSecurityInterceptor) super.methodSecurityInterceptor());
+    }
+}
@@ -0,0 +1,200 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.intercept.aopalliance.MethodSecurityInterceptor;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * A method security interceptor that checks {@link org.springframework.security.access.annotation.Secured} roles
+ * against the compiled authorities of the caller. The roles required by a method are compiled into a mask the first
+ * time the method is invoked, after which an access check is a single mask test. Access is granted if the caller has
+ * any of the roles, like with the default {@code RoleVoter}, but the role hierarchy of {@link CompiledAuthorities} is
+ * taken into account.
+ * <p>
+ * Methods with attributes other than roles, and callers whose authentication has not been authenticated yet, go
+ * through the standard {@link MethodSecurityInterceptor} pipeline. Only the standard pipeline is timed, the compiled
+ * checks are just counted.
+ */
+public class CompiledSecuredMethodInterceptor extends MethodSecurityInterceptor {
+
+    private static final long NOT_COMPILED = 0L;
+
+    // Keyed by target class as well, the same interface method can be secured differently by its implementations
+    private final ConcurrentMap<MethodKey, Long> requiredMasks = new ConcurrentHashMap<>();
+
+    private final LongAdder grantedInvocations = new LongAdder();
+
+    private final LongAdder deniedInvocations = new LongAdder();
+
+    private final Timer standardInvocations = new Timer();
+
+    /**
+     * Creates a new interceptor that uses the same configuration as the given interceptor for the standard pipeline.
+     */
+    public CompiledSecuredMethodInterceptor(MethodSecurityInterceptor template) {
+        setAccessDecisionManager(template.getAccessDecisionManager());
+        setAfterInvocationManager(template.getAfterInvocationManager());
+        setAuthenticationManager(template.getAuthenticationManager());
+        setRunAsManager(template.getRunAsManager());
+        setSecurityMetadataSource(template.getSecurityMetadataSource());
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long requiredMask = getRequiredMask(invocation.getMethod(), getTargetClass(invocation));
+        if (requiredMask == NOT_COMPILED) {
+            return invokeStandard(invocation);
+        }
+        CompiledSecurityContext.Snapshot snapshot = getSnapshot(SecurityContextHolder.getContext());
+        Authentication authentication = snapshot.getAuthentication();
+        if (authentication == null) {
+            throw new AuthenticationCredentialsNotFoundException(
+                "An Authentication object was not found in the SecurityContext");
+        }
+        if (!authentication.isAuthenticated()) {
+            return invokeStandard(invocation);
+        }
+        if ((snapshot.getAuthorityMask() & requiredMask) == 0) {
+            deniedInvocations.increment();
+            throw new AccessDeniedException("Access is denied");
+        }
+        grantedInvocations.increment();
+        return invocation.proceed();
+    }
+
+    public long getGrantedInvocations() {
+        return grantedInvocations.sum();
+    }
+
+    public long getDeniedInvocations() {
+        return deniedInvocations.sum();
+    }
+
+    /**
+     * Returns the timer of the invocations that went through the standard pipeline. The timings include the invoked
+     * method itself.
+     */
+    public Timer getStandardInvocations() {
+        return standardInvocations;
+    }
+
+    /**
+     * Returns whether the current user would be granted access to the given method, without invoking it and without
+     * throwing any exceptions. Users that have not been authenticated are never granted access.
+     */
+    public boolean isGranted(Method method, Class<?> targetClass) {
+        CompiledSecurityContext.Snapshot snapshot = getSnapshot(SecurityContextHolder.getContext());
+        Authentication authentication = snapshot.getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        long requiredMask = getRequiredMask(method, targetClass);
+        if (requiredMask != NOT_COMPILED) {
+            return (snapshot.getAuthorityMask() & requiredMask) != 0;
+        }
+        Collection<ConfigAttribute> attributes = getSecurityMetadataSource().getAttributes(method, targetClass);
+        if (attributes.isEmpty()) {
+            return true;
+        }
+        try {
+            getAccessDecisionManager().decide(authentication, new SimpleMethodInvocation(null, method), attributes);
+            return true;
+        } catch (AccessDeniedException ex) {
+            return false;
+        }
+    }
+
+    private Object invokeStandard(MethodInvocation invocation) throws Throwable {
+        Timer.Context timer = standardInvocations.time();
+        try {
+            Object result = super.invoke(invocation);
+            grantedInvocations.increment();
+            return result;
+        } catch (AccessDeniedException ex) {
+            deniedInvocations.increment();
+            throw ex;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private long getRequiredMask(Method method, Class<?> targetClass) {
+        MethodKey key = new MethodKey(method, targetClass);
+        Long mask = requiredMasks.get(key);
+        if (mask == null) {
+            mask = compile(getSecurityMetadataSource().getAttributes(method, targetClass));
+            requiredMasks.put(key, mask);
+        }
+        return mask;
+    }
+
+    private static Class<?> getTargetClass(MethodInvocation invocation) {
+        return invocation.getThis() == null ? null : AopUtils.getTargetClass(invocation.getThis());
+    }
+
+    private static long compile(Collection<ConfigAttribute> attributes) {
+        long mask = 0L;
+        for (ConfigAttribute attribute : attributes) {
+            String role = attribute.getAttribute();
+            int index = role != null && role.startsWith("ROLE_") ? CompiledAuthorities.register(role) : -1;
+            if (index < 0) {
+                return NOT_COMPILED;
+            }
+            mask |= 1L << index;
+        }
+        return mask;
+    }
+
+    private static CompiledSecurityContext.Snapshot getSnapshot(SecurityContext context) {
+        if (context instanceof CompiledSecurityContext) {
+            return ((CompiledSecurityContext) context).getSnapshot(); // Authentication and mask read together
+        }
+        Authentication authentication = context.getAuthentication();
+        return new CompiledSecurityContext.Snapshot(authentication, CompiledAuthorities.compile(authentication));
+    }
+
+    private static final class MethodKey {
+
+        private final Method method;
+
+        private final Class<?> targetClass;
+
+        MethodKey(Method method, Class<?> targetClass) {
+            this.method = method;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey otherKey = (MethodKey) other;
+            return method.equals(otherKey.method) && Objects.equals(targetClass, otherKey.targetClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return method.hashCode() * 31 + Objects.hashCode(targetClass);
+        }
+    }
+}
@@ -1,16 +1,38 @@
 package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
+import java.io.IOException;
+
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.vaadin.server.CustomizedSystemMessages;
+import com.vaadin.server.DeploymentConfiguration;
+import com.vaadin.server.ServiceException;
 import com.vaadin.server.SystemMessagesProvider;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.shared.ApplicationConstants;
 import com.vaadin.spring.server.SpringVaadinServlet;
+import com.vaadin.spring.server.SpringVaadinServletService;
 
 @Component("vaadinServlet")
 public class CustomServlet extends SpringVaadinServlet {
 
+    @Autowired
+    SecurityMetrics securityMetrics;
+
+    @Autowired
+    SessionFootprintEndpoint sessionFootprint;
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
     @Override
     protected void servletInitialized() throws ServletException {
         super.servletInitialized();
@@ -22,5 +44,48 @@ public class CustomServlet extends SpringVaadinServlet {
             messages.setCommunicationErrorNotificationEnabled(false);
             return messages;
         });
+        // Attach the security context holder while the new session is locked, so that lookups never have to
+        getService().addSessionInitListener(
+            event -> VaadinSessionSecurityContextHolderStrategy.attach(event.getSession()));
+        getService().addSessionInitListener(event -> securityMetrics.sessionCreated());
+        getService().addSessionDestroyListener(event -> securityMetrics.sessionDestroyed());
+        getService().addSessionInitListener(event -> sessionFootprint.sessionCreated(event.getSession()));
+        getService().addSessionDestroyListener(event -> sessionFootprint.sessionDestroyed(event.getSession()));
+        // Sessions are indexed by user when the user logs in, see SecuredUI
+        getService().addSessionInitListener(event -> sessionRegistry.sessionCreated(event.getSession()));
+        getService().addSessionDestroyListener(event -> sessionRegistry.sessionDestroyed(event.getSession()));
+    }
+
+    @Override
+    protected VaadinServletService createServletService(DeploymentConfiguration deploymentConfiguration)
+        throws ServiceException {
+        SpringVaadinServletService service = new SpringVaadinServletService(this, deploymentConfiguration,
+            getServiceUrlPath()) {
+            @Override
+            public void requestEnd(VaadinRequest request, VaadinResponse response, VaadinSession session) {
+                // Heartbeats only tell that the browser is still open, not that the user is doing anything
+                if (session != null && !isHeartbeatRequest(request)) {
+                    sessionRegistry.sessionAccessed(session);
+                }
+                super.requestEnd(request, response, session);
+            }
+        };
+        service.init();
+        return service;
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException {
+        try {
+            super.service(request, response);
+        } finally {
+            VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+        }
+    }
+
+    private static boolean isHeartbeatRequest(VaadinRequest request) {
+        String pathInfo = request.getPathInfo();
+        return pathInfo != null && pathInfo.startsWith("/" + ApplicationConstants.HEARTBEAT_PATH + "/");
     }
 }
@@ -0,0 +1,152 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A {@link SessionStore} that keeps every record in its own file, in a directory that can be shared by all nodes on a
+ * host or mounted from a network file system. Stands in for a shared store such as a database or a key-value store.
+ * Writes are atomic renames and the idle timeout is tracked through the modification times of the files.
+ */
+@Component
+public class FileSessionStore implements SessionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSessionStore.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${session.store.directory}")
+    private String directory;
+
+    @Value("${session.store.timeout:${server.session.timeout:1800}}")
+    private long timeoutSeconds;
+
+    private Path root;
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Files.createDirectories(Paths.get(directory));
+    }
+
+    @Override
+    public byte[] load(String key) {
+        Path file = file(key);
+        try {
+            if (isExpired(file)) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            LOGGER.warn("Could not load session record {}", file, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public void write(Map<String, byte[]> records) {
+        for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            Path file = file(record.getKey());
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                Files.write(tmp, record.getValue());
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                LOGGER.warn("Could not write session record {}", file, ex);
+            }
+        }
+    }
+
+    @Override
+    public void touch(Collection<String> keys) {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (String key : keys) {
+            try {
+                Files.setLastModifiedTime(file(key), now);
+            } catch (NoSuchFileException ex) {
+                // Deleted by another node, e.g. because the user logged out there
+            } catch (IOException ex) {
+                LOGGER.warn("Could not touch session record {}", key, ex);
+            }
+        }
+    }
+
+    @Override
+    public void delete(Collection<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(file(key));
+            } catch (IOException ex) {
+                LOGGER.warn("Could not delete session record {}", key, ex);
+            }
+        }
+    }
+
+    @Override
+    public void expire(Map<String, Long> keys) {
+        for (Map.Entry<String, Long> key : keys.entrySet()) {
+            Path file = file(key.getKey());
+            try {
+                if (Files.getLastModifiedTime(file).toMillis() <= key.getValue()) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (NoSuchFileException ex) {
+                // Deleted by another node meanwhile
+            } catch (IOException ex) {
+                LOGGER.warn("Could not expire session record {}", key.getKey(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void deleteExpired() {
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(root)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+                    for (Path file : files) {
+                        if (isExpired(file)) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                } catch (NoSuchFileException ex) {
+                    // Deleted by another node meanwhile
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Could not delete expired session records", ex);
+        }
+    }
+
+    private boolean isExpired(Path file) throws IOException {
+        long idle = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+        return idle > TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    private Path file(String key) {
+        // The keys end up in file names, so anything but a hash is rejected
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid session record key");
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+}
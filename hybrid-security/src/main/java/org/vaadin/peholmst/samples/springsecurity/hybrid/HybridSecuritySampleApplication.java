@@ -1,5 +1,6 @@
 package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
@@ -8,7 +9,6 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
-import org.springframework.security.config.annotation.method.configuration.GlobalMethodSecurityConfiguration;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 @SpringBootApplication(exclude = { SecurityAutoConfiguration.class })
@@ -16,17 +16,14 @@ public class HybridSecuritySampleApplication {
 
     @Configuration
     @EnableGlobalMethodSecurity(securedEnabled = true)
-    public static class SecurityConfiguration extends GlobalMethodSecurityConfiguration {
+    public static class SecurityConfiguration extends CompiledMethodSecurityConfiguration {
+
+        @Autowired
+        PasswordUpgradingAuthenticationProvider authenticationProvider;
 
         @Override
         protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-            //@formatter:off
-            auth
-                .inMemoryAuthentication()
-                    .withUser("admin").password("p").roles("ADMIN", "USER")
-                    .and()
-                    .withUser("user").password("p").roles("USER");
-            //@formatter:on
+            auth.authenticationProvider(authenticationProvider);
         }
 
         @Bean
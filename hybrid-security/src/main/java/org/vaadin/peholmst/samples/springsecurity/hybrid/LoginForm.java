@@ -1,5 +1,9 @@
 package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 import com.vaadin.event.ShortcutAction;
 import com.vaadin.ui.*;
 
@@ -15,21 +19,70 @@ public class LoginForm extends VerticalLayout {
         PasswordField password = new PasswordField("Password");
         addComponent(password);
 
-        Button login = new Button("Login", evt -> {
+        ProgressBar progress = new ProgressBar();
+        progress.setIndeterminate(true);
+        progress.setCaption("Logging in...");
+        progress.setVisible(false);
+
+        Button login = new Button("Login");
+        login.addClickListener(evt -> {
             String pword = password.getValue();
             password.setValue("");
-            if (!callback.login(username.getValue(), pword)) {
-                Notification.show("Login failed");
-                username.focus();
-            }
+            // The login is completed in the background, keep the user from sending it twice meanwhile
+            setInputEnabled(false, username, password, login);
+            progress.setVisible(true);
+            callback.login(username.getValue(), pword).whenComplete((loggedIn, error) -> {
+                // Invoked while the session is locked, the main UI has already replaced this form on success
+                setInputEnabled(true, username, password, login);
+                progress.setVisible(false);
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof ThrottledException) {
+                    Notification.show("Too many login attempts, please try again later",
+                        Notification.Type.WARNING_MESSAGE);
+                } else if (cause instanceof RejectedExecutionException) {
+                    Notification.show("The server is busy, please try again in a moment",
+                        Notification.Type.WARNING_MESSAGE);
+                } else if (cause != null) {
+                    Notification.show("Login could not be completed because of an error",
+                        Notification.Type.ERROR_MESSAGE);
+                } else if (!loggedIn) {
+                    Notification.show("Login failed");
+                    username.focus();
+                }
+            });
         });
         login.setClickShortcut(ShortcutAction.KeyCode.ENTER);
         addComponent(login);
+        addComponent(progress);
+    }
+
+    private static void setInputEnabled(boolean enabled, Component... components) {
+        for (Component component : components) {
+            component.setEnabled(enabled);
+        }
     }
 
     @FunctionalInterface
     public interface LoginCallback {
 
-        boolean login(String username, String password);
+        /**
+         * Starts logging in. The returned future completes with the result while the session is locked, or
+         * exceptionally if the login could not be attempted at all: with a {@link ThrottledException} if there have
+         * been too many attempts, with a {@link RejectedExecutionException} if too many logins are already pending, or
+         * with any other exception if the login failed because of an error.
+         */
+        CompletableFuture<Boolean> login(String username, String password);
+    }
+
+    /**
+     * Thrown when a login attempt is rejected by the {@link LoginThrottle} before the password is checked.
+     */
+    public static class ThrottledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ThrottledException(String message) {
+            super(message);
+        }
     }
 }
@@ -0,0 +1,129 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replaces weak password hashes in the background, so that logging in never waits for a new hash to be computed or
+ * written. Upgrades that arrive close together are written to the user store as one batch. If the queue is full, the
+ * upgrade is dropped; it is requested again the next time the user logs in.
+ */
+@Component
+public class PasswordRehashQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PasswordRehashQueue.class);
+
+    private final LongAdder rehashedPasswords = new LongAdder();
+
+    private final LongAdder droppedRehashes = new LongAdder();
+
+    @Autowired
+    AdaptivePasswordEncoder passwordEncoder;
+
+    @Autowired
+    IndexedUserDetailsService userDetailsService;
+
+    @Value("${password.rehash.queue-size:1000}")
+    private int queueSize;
+
+    @Value("${password.rehash.batch-size:50}")
+    private int batchSize;
+
+    @Value("${password.rehash.batch-delay-ms:500}")
+    private long batchDelayMillis;
+
+    private BlockingQueue<Rehash> queue;
+
+    private Thread worker;
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueSize);
+        worker = new Thread(this::run, "password-rehash");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        worker.interrupt();
+    }
+
+    /**
+     * Requests the password of the given user to be hashed again with the current strength. Never blocks.
+     */
+    public void submit(String username, String rawPassword) {
+        if (!queue.offer(new Rehash(username, rawPassword))) {
+            droppedRehashes.increment();
+        }
+    }
+
+    public int getPendingRehashes() {
+        return queue.size();
+    }
+
+    public long getRehashedPasswords() {
+        return rehashedPasswords.sum();
+    }
+
+    public long getDroppedRehashes() {
+        return droppedRehashes.sum();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Map<String, String> batch = new LinkedHashMap<>();
+                add(batch, queue.take());
+                // Wait a little for more upgrades, so that they are forced to disk together
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+                while (batch.size() < batchSize) {
+                    Rehash next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    add(batch, next);
+                }
+                int updated = userDetailsService.updatePasswords(batch);
+                rehashedPasswords.add(updated);
+                LOGGER.debug("Rehashed {} of {} passwords", updated, batch.size());
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not rehash passwords", ex);
+            }
+        }
+    }
+
+    private void add(Map<String, String> batch, Rehash rehash) {
+        // The same user may have logged in several times before the upgrade was written
+        if (!batch.containsKey(rehash.username)) {
+            batch.put(rehash.username, passwordEncoder.encode(rehash.rawPassword));
+        }
+    }
+
+    private static final class Rehash {
+
+        final String username;
+
+        final String rawPassword;
+
+        Rehash(String username, String rawPassword) {
+            this.username = username;
+            this.rawPassword = rawPassword;
+        }
+    }
+}
@@ -2,12 +2,17 @@ package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
-import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
@@ -18,6 +23,9 @@ import com.vaadin.navigator.Navigator;
 import com.vaadin.server.DefaultErrorHandler;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinServletRequest;
+import com.vaadin.server.VaadinServletResponse;
+import com.vaadin.server.WrappedHttpSession;
 import com.vaadin.shared.communication.PushMode;
 import com.vaadin.shared.ui.ui.Transport;
 import com.vaadin.spring.annotation.SpringUI;
@@ -30,32 +38,79 @@ import com.vaadin.ui.themes.ValoTheme;
 @Theme(ValoTheme.THEME_NAME) // Looks nicer
 public class SecuredUI extends UI {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecuredUI.class);
+
+    // Push is only enabled after logging in, so the client polls for the result of the login instead
+    private static final int LOGIN_POLL_INTERVAL_MS = 250;
+
+    @Autowired
+    AuthenticationExecutor authenticationExecutor;
+
     @Autowired
-    AuthenticationManager authenticationManager;
+    LoginThrottle loginThrottle;
 
     @Autowired
     BackendService backendService;
 
+    @Autowired
+    BackendPermissions backendPermissions;
+
     @Autowired
     SpringViewProvider viewProvider;
 
     @Autowired
     ErrorView errorView;
 
+    @Autowired
+    PushBroadcaster pushBroadcaster;
+
+    @Autowired
+    SecurityMetrics securityMetrics;
+
+    @Autowired
+    SessionPersistence sessionPersistence;
+
+    @Autowired
+    SessionRegistry sessionRegistry;
+
+    @Autowired
+    BackgroundExecutor backgroundExecutor;
+
+    @Autowired
+    BackendBatch backendBatch;
+
     private Label timeAndUser;
 
-    private Timer timer;
+    private final Map<Button, String> backendButtons = new HashMap<>();
+
+    private Authentication pendingAuthentication;
+
+    private CompletableFuture<Boolean> pendingLogin;
 
     @Override
     protected void init(VaadinRequest request) {
         getPage().setTitle("Vaadin and Spring Security Demo - Hybrid Security");
-        if (SecurityUtils.isLoggedIn()) {
+        addPollListener(event -> completeLogin());
+        if (SecurityUtils.isLoggedIn() || restoreLogin(request)) {
             showMain();
         } else {
             showLogin();
         }
     }
 
+    private boolean restoreLogin(VaadinRequest request) {
+        // Users that logged in on another node, or before this node was restarted, are restored from the session store
+        Authentication authentication = sessionPersistence.restore((VaadinServletRequest) request,
+            (VaadinServletResponse) VaadinService.getCurrentResponse());
+        if (authentication == null) {
+            return false;
+        }
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        sessionRegistry.sessionAuthenticated(getSession(), authentication.getName());
+        enablePush();
+        return true;
+    }
+
     private void showLogin() {
         setContent(new LoginForm(this::login));
     }
@@ -70,20 +125,26 @@ public class SecuredUI extends UI {
         buttons.setSpacing(true);
         layout.addComponent(buttons);
 
-        buttons.addComponent(new Button("Invoke user method", event -> {
-            // This method should be accessible by both 'user' and 'admin'.
-            Notification.show(backendService.userMethod());
-        }));
+        // This method should be accessible by both 'user' and 'admin'.
+        buttons.addComponent(createBackendButton("Invoke user method", "userMethod", backendService::userMethod));
+        // The same method, called in the background without holding the session lock
+        buttons.addComponent(new Button("Invoke user method in background",
+            event -> backgroundExecutor.execute(backendService::userMethod, Notification::show)));
         buttons.addComponent(new Button("Navigate to user view", event -> {
             getNavigator().navigateTo("");
         }));
-        buttons.addComponent(new Button("Invoke admin method", event -> {
-            // This method should be accessible by 'admin' only.
-            Notification.show(backendService.adminMethod());
-        }));
+        // This method should be accessible by 'admin' only.
+        buttons.addComponent(createBackendButton("Invoke admin method", "adminMethod", backendService::adminMethod));
+        // Both methods in one call, the user is authorized once for each set of roles
+        buttons.addComponent(new Button("Invoke all methods in batch", event -> Notification.show(
+            backendBatch.invoke(backendBatch.getOperations(), 1).stream().map(Object::toString)
+                .collect(Collectors.joining(", ")))));
         buttons.addComponent(new Button("Navigate to admin view", event -> {
             getNavigator().navigateTo("admin");
         }));
+        buttons.addComponent(new Button("Navigate to sessions view", event -> {
+            getNavigator().navigateTo("sessions");
+        }));
         buttons.addComponent(new Button("Logout", event -> logout()));
         timeAndUser = new Label();
         timeAndUser.setSizeUndefined();
@@ -102,60 +163,137 @@ public class SecuredUI extends UI {
         navigator.addProvider(viewProvider);
         navigator.setErrorView(errorView);
         viewProvider.setAccessDeniedViewClass(AccessDeniedView.class);
-        // Fire up a timer to demonstrate server push. Do NOT use timers in real-world applications, use a thread pool.
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                updateTimeAndUser();
-            }
-        }, 1000L, 1000L);
+        // Register with the shared broadcaster to demonstrate server push
+        pushBroadcaster.register(this, this::updateTimeAndUser);
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        securityMetrics.uiAttached();
     }
 
     @Override
     public void detach() {
-        timer.cancel();
+        pushBroadcaster.unregister(this);
+        securityMetrics.uiDetached();
         super.detach();
     }
 
+    /**
+     * Called through {@link #access(Runnable)} when the authorities of the user have changed. Updates the buttons and
+     * checks again whether the user may see the current view.
+     */
+    public void refreshPermissions() {
+        if (getNavigator() == null) {
+            return; // Not logged in to this UI yet
+        }
+        backendButtons.forEach((button, methodName) -> button.setEnabled(backendPermissions.canInvoke(methodName)));
+        getNavigator().navigateTo(getNavigator().getState());
+        Notification.show("Your permissions have changed", Notification.Type.TRAY_NOTIFICATION);
+    }
+
     private void updateTimeAndUser() {
         // Demonstrate that server push works and that you can even access the security context from within the
-        // access(...) method.
-        access(() -> timeAndUser.setValue(String.format("The server-side time is %s and the current user is %s",
+        // access(...) method (the broadcaster invokes this method through access(...)).
+        timeAndUser.setValue(String.format("The server-side time is %s and the current user is %s",
             LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")),
-            SecurityContextHolder.getContext().getAuthentication().getName())));
+            SecurityContextHolder.getContext().getAuthentication().getName()));
     }
 
-    private boolean login(String username, String password) {
-        try {
-            Authentication token = authenticationManager
-                .authenticate(new UsernamePasswordAuthenticationToken(username, password));
-            // Reinitialize the session to protect against session fixation attacks. This does not work
-            // with websocket communication.
-            VaadinService.reinitializeSession(VaadinService.getCurrentRequest());
-            SecurityContextHolder.getContext().setAuthentication(token);
-            // Now when the session is reinitialized, we can enable websocket communication. Or we could have just
-            // used WEBSOCKET_XHR and skipped this step completely.
-            getPushConfiguration().setTransport(Transport.WEBSOCKET);
-            getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
-            // Show the main UI
-            showMain();
-            return true;
-        } catch (AuthenticationException ex) {
-            return false;
+    private CompletableFuture<Boolean> login(String username, String password) {
+        CompletableFuture<Boolean> loggedIn = new CompletableFuture<>();
+        if (!loginThrottle.tryAcquire(username, VaadinService.getCurrentRequest().getRemoteAddr())) {
+            // Rejected before the authentication manager is called, this costs nothing compared to checking a password
+            loggedIn.completeExceptionally(new LoginForm.ThrottledException("Too many login attempts"));
+            return loggedIn;
+        }
+        long start = System.nanoTime();
+        setPollInterval(LOGIN_POLL_INTERVAL_MS);
+        // The password is checked in the background, the session is only locked again to deliver the result
+        authenticationExecutor.authenticate(new UsernamePasswordAuthenticationToken(username, password))
+            .whenComplete((token, error) -> access(() -> {
+                if (token != null) {
+                    securityMetrics.recordAuthentication(System.nanoTime() - start, true);
+                    // The session can only be reinitialized while handling a request, which is the next poll
+                    pendingAuthentication = token;
+                    pendingLogin = loggedIn;
+                } else {
+                    setPollInterval(-1);
+                    if (error instanceof AuthenticationException) {
+                        securityMetrics.recordAuthentication(System.nanoTime() - start, false);
+                        loggedIn.complete(false);
+                    } else {
+                        if (!(error instanceof RejectedExecutionException)) {
+                            LOGGER.error("Could not authenticate {}", username, error);
+                        }
+                        loggedIn.completeExceptionally(error);
+                    }
+                }
+            }));
+        return loggedIn;
+    }
+
+    private void completeLogin() {
+        if (pendingAuthentication == null) {
+            return;
         }
+        Authentication token = pendingAuthentication;
+        CompletableFuture<Boolean> loggedIn = pendingLogin;
+        pendingAuthentication = null;
+        pendingLogin = null;
+        setPollInterval(-1);
+        // Reinitialize the session to protect against session fixation attacks. This does not work
+        // with websocket communication.
+        VaadinService.reinitializeSession(VaadinService.getCurrentRequest());
+        SecurityContextHolder.getContext().setAuthentication(token);
+        sessionRegistry.sessionAuthenticated(getSession(), token.getName());
+        // Store the user for the other nodes, the id is sent with the response to this poll
+        sessionPersistence.issue(token, (VaadinServletRequest) VaadinService.getCurrentRequest(),
+            (VaadinServletResponse) VaadinService.getCurrentResponse());
+        // Now when the session is reinitialized, we can enable websocket communication. Or we could have just
+        // used WEBSOCKET_XHR and skipped this step completely.
+        enablePush();
+        // Show the main UI
+        showMain();
+        loggedIn.complete(true);
+    }
+
+    private void enablePush() {
+        getPushConfiguration().setTransport(Transport.WEBSOCKET);
+        getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
     }
 
     private void logout() {
+        // May be called over websocket, so the cookie can not be removed here. It is ignored from now on.
+        sessionPersistence.discard(((WrappedHttpSession) getSession().getSession()).getHttpSession());
         getPage().reload();
         getSession().close();
     }
 
+    private Button createBackendButton(String caption, String methodName, Supplier<String> method) {
+        Button button = new Button(caption, event -> {
+            // Reject the call up front instead of letting the method security interceptor throw an exception
+            if (backendPermissions.checkInvoke(methodName)) {
+                Notification.show(method.get());
+            } else {
+                showAccessDenied();
+            }
+        });
+        button.setEnabled(backendPermissions.canInvoke(methodName));
+        backendButtons.put(button, methodName);
+        return button;
+    }
+
+    private void showAccessDenied() {
+        Notification.show("You do not have permission to perform this operation", Notification.Type.WARNING_MESSAGE);
+    }
+
     private void handleError(com.vaadin.server.ErrorEvent event) {
         Throwable t = DefaultErrorHandler.findRelevantThrowable(event.getThrowable());
         if (t instanceof AccessDeniedException) {
-            Notification.show("You do not have permission to perform this operation",
-                Notification.Type.WARNING_MESSAGE);
+            backendPermissions.recordExceptionDenial();
+            showAccessDenied();
         } else {
             DefaultErrorHandler.doDefault(event);
         }
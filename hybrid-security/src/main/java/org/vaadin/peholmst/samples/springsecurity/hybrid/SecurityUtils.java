@@ -1,7 +1,7 @@
 package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 public final class SecurityUtils {
@@ -15,7 +15,11 @@ public final class SecurityUtils {
     }
 
     public static boolean hasRole(String role) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        return authentication != null && authentication.getAuthorities().contains(new SimpleGrantedAuthority(role));
+        SecurityContext context = SecurityContextHolder.getContext();
+        if (context instanceof CompiledSecurityContext) {
+            return ((CompiledSecurityContext) context).hasAuthority(role);
+        }
+        Authentication authentication = context.getAuthentication();
+        return CompiledAuthorities.hasAuthority(CompiledAuthorities.compile(authentication), authentication, role);
     }
 }
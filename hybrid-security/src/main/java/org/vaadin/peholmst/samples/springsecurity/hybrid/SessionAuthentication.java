@@ -0,0 +1,166 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+/**
+ * The form in which an authenticated user is kept in the session. It holds only the username and an interned list of
+ * authorities (see {@link CompiledAuthorities#intern(Collection)}); the credentials and details are dropped. The full
+ * {@link UserDetails} principal is loaded from the user details service every time {@link #getPrincipal()} is called,
+ * instead of being kept alive by every session.
+ */
+public final class SessionAuthentication implements Authentication {
+
+    private static final long serialVersionUID = 1L;
+
+    private static volatile UserDetailsService userDetailsService;
+
+    private final String username;
+
+    // Serialized as authority names, so that the list can be interned again when the session is read back
+    private transient List<GrantedAuthority> authorities;
+
+    private volatile boolean authenticated = true;
+
+    private SessionAuthentication(String username, List<GrantedAuthority> authorities) {
+        this.username = username;
+        this.authorities = authorities;
+    }
+
+    /**
+     * Sets the service that principals are loaded from.
+     */
+    public static void setUserDetailsService(UserDetailsService userDetailsService) {
+        SessionAuthentication.userDetailsService = userDetailsService;
+    }
+
+    /**
+     * Returns the compact form of the given authentication if it is an authenticated username and password token,
+     * otherwise the authentication itself.
+     */
+    public static Authentication compact(Authentication authentication) {
+        if (authentication instanceof UsernamePasswordAuthenticationToken && authentication.isAuthenticated()
+            && authentication.getPrincipal() instanceof UserDetails) {
+            for (GrantedAuthority authority : authentication.getAuthorities()) {
+                if (authority.getAuthority() == null) {
+                    return authentication; // Complex authorities can not be stored by name
+                }
+            }
+            return of(authentication.getName(), authentication.getAuthorities());
+        }
+        return authentication;
+    }
+
+    /**
+     * Returns an authentication of the given user that has already been authenticated elsewhere, e.g. on another
+     * node.
+     */
+    public static SessionAuthentication of(String username, Collection<? extends GrantedAuthority> authorities) {
+        return new SessionAuthentication(username, CompiledAuthorities.intern(authorities));
+    }
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return null;
+    }
+
+    @Override
+    public Object getDetails() {
+        return null;
+    }
+
+    /**
+     * Loads the user details of the authenticated user, without credentials. Returns the username if the user can
+     * not be loaded.
+     */
+    @Override
+    public Object getPrincipal() {
+        UserDetailsService service = userDetailsService;
+        if (service == null) {
+            return username;
+        }
+        try {
+            UserDetails principal = service.loadUserByUsername(username);
+            if (principal instanceof CredentialsContainer) {
+                ((CredentialsContainer) principal).eraseCredentials();
+            }
+            return principal;
+        } catch (UsernameNotFoundException ex) {
+            return username;
+        }
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    @Override
+    public void setAuthenticated(boolean authenticated) {
+        if (authenticated) {
+            throw new IllegalArgumentException("A session authentication can not be marked as authenticated again");
+        }
+        this.authenticated = false;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SessionAuthentication)) {
+            return false;
+        }
+        SessionAuthentication other = (SessionAuthentication) obj;
+        return username.equals(other.username) && authorities.equals(other.authorities)
+            && authenticated == other.authenticated;
+    }
+
+    @Override
+    public int hashCode() {
+        return username.hashCode() * 31 + authorities.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + username + ", " + authorities + "]";
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            out.writeUTF(authority.getAuthority());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        List<GrantedAuthority> read = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            read.add(new SimpleGrantedAuthority(in.readUTF()));
+        }
+        authorities = CompiledAuthorities.intern(read);
+    }
+}
@@ -0,0 +1,431 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the authenticated users in a {@link SessionStore} that is shared by all nodes, so that a request can be served
+ * by any node and a restarted node does not log anybody out. The HTTP sessions themselves, and the Vaadin UIs in
+ * them, stay local to the node that created them; a node that sees a user for the first time restores the
+ * authentication from the store and starts a new session for it.
+ * <p>
+ * Users are identified by a random id in the {@code session.store.cookie} cookie. The store only sees a hash of the
+ * id. Records are written by a background thread every {@code session.store.write-behind-ms}, so that logging in
+ * never waits for the store. The records of the sessions that have been accessed on this node are touched in batches,
+ * so that they expire {@code session.store.timeout} seconds after the last request of the user on any node.
+ * <p>
+ * When a session times out on this node, its record is deleted as well, unless another node has written or touched
+ * it since this node last did. Otherwise the user would be logged in again by the next request with the cookie, and
+ * the idle timeout would never log anybody out. Sessions that end for other reasons, such as a shutdown, keep their
+ * records.
+ */
+@Component
+public class SessionPersistence implements HttpSessionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionPersistence.class);
+
+    private static final String SESSION_ATTRIBUTE = SessionPersistence.class.getName();
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{22}");
+
+    private static final byte RECORD_VERSION = 1;
+
+    // Markers for pending operations that carry no record, compared by identity
+    private static final byte[] TOUCH = new byte[0];
+
+    private static final byte[] DELETE = new byte[0];
+
+    private static final byte[] EXPIRE = new byte[0];
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, byte[]> pendingOperations = new ConcurrentHashMap<>();
+
+    private final Map<String, HttpSession> liveKeys = new ConcurrentHashMap<>();
+
+    // When this node last wrote or touched the records of its live sessions
+    private final Map<String, Long> storedTimes = new ConcurrentHashMap<>();
+
+    private final LongAdder writtenRecords = new LongAdder();
+
+    private final LongAdder restoredSessions = new LongAdder();
+
+    @Autowired
+    SessionStore sessionStore;
+
+    @Value("${session.store.cookie:SECURITY_CONTEXT}")
+    private String cookieName;
+
+    @Value("${session.store.write-behind-ms:200}")
+    private long writeBehindMillis;
+
+    @Value("${session.store.timeout:${server.session.timeout:1800}}")
+    private long timeoutSeconds;
+
+    private Thread writer;
+
+    @PostConstruct
+    void start() {
+        writer = new Thread(this::run, "session-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        // Whatever is still pending is written now, so that the users are still logged in after a restart
+        flush();
+    }
+
+    /**
+     * Stores the given authentication under a new id and sends the id to the browser. Called after the user has
+     * logged in and the session has been replaced.
+     */
+    public void issue(Authentication authentication, HttpServletRequest request, HttpServletResponse response) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        String key = key(id);
+        pendingOperations.put(key, encode(authentication));
+        bind(request.getSession(), key);
+        response.addCookie(createCookie(request, id, -1));
+    }
+
+    /**
+     * Returns the authentication stored for the id in the request, or null if there is none. A new session is bound
+     * to the stored authentication if one is found, and the cookie is removed if not.
+     */
+    public Authentication restore(HttpServletRequest request, HttpServletResponse response) {
+        String id = readCookie(request);
+        if (id == null) {
+            return null;
+        }
+        String key = key(id);
+        byte[] record = pendingOperations.get(key);
+        if (record == DELETE || record == EXPIRE) {
+            record = null;
+        } else if (record == null || record == TOUCH) {
+            record = sessionStore.load(key);
+        }
+        Authentication authentication = record == null ? null : decode(record);
+        if (authentication == null) {
+            response.addCookie(createCookie(request, "", 0));
+            return null;
+        }
+        bind(request.getSession(), key);
+        // Shows the node that served the user before that the user has moved on, see sessionDestroyed
+        pendingOperations.putIfAbsent(key, TOUCH);
+        restoredSessions.increment();
+        return authentication;
+    }
+
+    /**
+     * Replaces the stored authentication of the given session, e.g. when the authorities of the user have changed.
+     */
+    public void update(HttpSession session, Authentication authentication) {
+        String key = boundKey(session);
+        if (key != null && liveKeys.containsKey(key)) {
+            byte[] record = encode(authentication);
+            // A session that has been discarded meanwhile stays discarded
+            pendingOperations.compute(key, (k, operation) -> operation == DELETE ? DELETE : record);
+        }
+    }
+
+    /**
+     * Removes the stored authentication of the given session, e.g. when the user logs out.
+     */
+    public void discard(HttpSession session) {
+        String key = boundKey(session);
+        if (key != null) {
+            liveKeys.remove(key);
+            pendingOperations.put(key, DELETE);
+        }
+    }
+
+    /**
+     * Tells the browser to forget its id.
+     */
+    public void clearCookie(HttpServletRequest request, HttpServletResponse response) {
+        if (readCookie(request) != null) {
+            response.addCookie(createCookie(request, "", 0));
+        }
+    }
+
+    @Override
+    public void sessionCreated(HttpSessionEvent event) {
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        HttpSession session = event.getSession();
+        String key = boundKey(session);
+        if (key == null || !liveKeys.remove(key, session)) {
+            return;
+        }
+        if (isTimedOut(session)) {
+            // A session that has been discarded meanwhile stays discarded
+            pendingOperations.compute(key, (k, operation) -> operation == DELETE ? DELETE : EXPIRE);
+        } else {
+            // The record is kept until it expires, the user may continue on another node
+            storedTimes.remove(key);
+        }
+    }
+
+    public int getPendingOperations() {
+        return pendingOperations.size();
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.sum();
+    }
+
+    public long getRestoredSessions() {
+        return restoredSessions.sum();
+    }
+
+    private void bind(HttpSession session, String key) {
+        session.setAttribute(SESSION_ATTRIBUTE, new SessionKey(key));
+        liveKeys.put(key, session);
+    }
+
+    private static boolean isTimedOut(HttpSession session) {
+        try {
+            long idleMillis = System.currentTimeMillis() - session.getLastAccessedTime();
+            return session.getMaxInactiveInterval() > 0
+                && idleMillis >= TimeUnit.SECONDS.toMillis(session.getMaxInactiveInterval());
+        } catch (IllegalStateException ex) {
+            return false; // Already invalidated
+        }
+    }
+
+    private static String boundKey(HttpSession session) {
+        if (session == null) {
+            return null;
+        }
+        try {
+            Object sessionKey = session.getAttribute(SESSION_ATTRIBUTE);
+            return sessionKey instanceof SessionKey ? ((SessionKey) sessionKey).key : null;
+        } catch (IllegalStateException ex) {
+            return null; // Already invalidated
+        }
+    }
+
+    private void run() {
+        long touchIntervalMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds) / 4;
+        long nextTouch = System.currentTimeMillis() + touchIntervalMillis;
+        long nextSweep = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        long lastTouch = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(writeBehindMillis);
+                long now = System.currentTimeMillis();
+                if (now >= nextTouch) {
+                    nextTouch = now + touchIntervalMillis;
+                    touchAccessedSince(lastTouch);
+                    lastTouch = now;
+                }
+                flush();
+                if (now >= nextSweep) {
+                    nextSweep = now + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+                    sessionStore.deleteExpired();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not write session records", ex);
+            }
+        }
+    }
+
+    /**
+     * Queues touches for the records of the live sessions that have been accessed since the given time, so that the
+     * records of idle sessions expire like the sessions themselves.
+     */
+    void touchAccessedSince(long time) {
+        for (Map.Entry<String, HttpSession> liveKey : liveKeys.entrySet()) {
+            try {
+                if (liveKey.getValue().getLastAccessedTime() >= time) {
+                    pendingOperations.putIfAbsent(liveKey.getKey(), TOUCH);
+                }
+            } catch (IllegalStateException ex) {
+                // Invalidated meanwhile
+            }
+        }
+    }
+
+    /**
+     * Carries out the pending operations. Called by the writer thread, and once more when the node stops.
+     */
+    void flush() {
+        Map<String, byte[]> writes = new HashMap<>();
+        List<String> touches = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        Map<String, Long> expirations = new HashMap<>();
+        for (String key : pendingOperations.keySet()) {
+            byte[] operation = pendingOperations.remove(key);
+            if (operation == TOUCH) {
+                touches.add(key);
+            } else if (operation == DELETE) {
+                deletes.add(key);
+                storedTimes.remove(key);
+            } else if (operation == EXPIRE) {
+                Long storedTime = storedTimes.remove(key);
+                if (storedTime != null) {
+                    expirations.put(key, storedTime);
+                } // Otherwise this node has never stored the record, it is left to expire on its own
+            } else if (operation != null) {
+                writes.put(key, operation);
+            }
+        }
+        if (!writes.isEmpty()) {
+            sessionStore.write(writes);
+            writtenRecords.add(writes.size());
+            recordStoredTimes(writes.keySet());
+        }
+        if (!touches.isEmpty()) {
+            sessionStore.touch(touches);
+            recordStoredTimes(touches);
+        }
+        if (!deletes.isEmpty()) {
+            sessionStore.delete(deletes);
+        }
+        if (!expirations.isEmpty()) {
+            sessionStore.expire(expirations);
+        }
+    }
+
+    private void recordStoredTimes(Collection<String> keys) {
+        // Taken after the store has been updated, so that the times are never earlier than those in the store
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            // A session may have timed out meanwhile, its expiration still needs the time
+            if (liveKeys.containsKey(key) || pendingOperations.get(key) == EXPIRE) {
+                storedTimes.put(key, now);
+            } else {
+                storedTimes.remove(key);
+            }
+        }
+    }
+
+    private String readCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookieName.equals(cookie.getName()) && ID_PATTERN.matcher(cookie.getValue()).matches()) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private Cookie createCookie(HttpServletRequest request, String value, int maxAge) {
+        Cookie cookie = new Cookie(cookieName, value);
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    private static String key(String id) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.US_ASCII));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] encode(Authentication authentication) {
+        // version, creation time, username, authority count and authorities
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(authentication.getName());
+            Collection<? extends GrantedAuthority> authorities = authentication.getAuthorities();
+            out.writeShort(authorities.size());
+            for (GrantedAuthority authority : authorities) {
+                out.writeUTF(authority.getAuthority());
+            }
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Authentication decode(byte[] record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            if (in.readByte() != RECORD_VERSION) {
+                return null;
+            }
+            in.readLong(); // Creation time
+            String username = in.readUTF();
+            int count = in.readUnsignedShort();
+            List<GrantedAuthority> authorities = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+            }
+            return SessionAuthentication.of(username, authorities);
+        } catch (IOException ex) {
+            LOGGER.warn("Could not decode session record", ex);
+            return null;
+        }
+    }
+
+    private static final class SessionKey implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String key;
+
+        SessionKey(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A store of session records that is shared by all nodes. Records expire when they have not been written or touched
+ * for the idle timeout of the store. All methods except {@link #load(String)} are only called from the write-behind
+ * thread of {@link SessionPersistence}, in batches.
+ */
+public interface SessionStore {
+
+    /**
+     * Returns the record with the given key, or null if there is no such record or it has expired.
+     */
+    byte[] load(String key);
+
+    void write(Map<String, byte[]> records);
+
+    /**
+     * Restarts the idle timeout of the given records. Records that do not exist are not created.
+     */
+    void touch(Collection<String> keys);
+
+    void delete(Collection<String> keys);
+
+    /**
+     * Deletes the given records unless they have been written or touched after the given times, e.g. by another node
+     * that the user has moved on to. The keys are mapped to the times in milliseconds since the epoch.
+     */
+    void expire(Map<String, Long> keys);
+
+    void deleteExpired();
+}
@@ -0,0 +1,306 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Serves the static resources, i.e. everything below {@code /VAADIN/}, before the Vaadin servlet sees the request.
+ * <p>
+ * Every resource is copied out of the class path into {@code static.resources.cache-directory} the first time it is
+ * requested, together with its compressed variants. Brotli and gzip variants that are shipped next to a resource, such
+ * as the {@code .gz} files in the Vaadin jars, are used as they are; text resources without a shipped gzip variant are
+ * compressed once. Each variant gets a strong ETag of its content. Resources with a fingerprint of their content in
+ * their name are cached by browsers for good, the others for {@code static.resources.max-age} seconds before they are
+ * revalidated. The version parameter that Vaadin adds to URLs does not count, as it is the version of Vaadin and not
+ * of the resource. Files are handed to Tomcat to be sent with sendfile where it is supported.
+ * <p>
+ * Resources that can not be found are passed down the filter chain, so that Vaadin can still compile themes on the fly.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class StaticResourceFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaticResourceFilter.class);
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Only plain, relative paths below the static folder; no dot segments, escapes or path parameters
+    private static final Pattern PATH_PATTERN = Pattern.compile("/VAADIN(/[A-Za-z0-9_-][A-Za-z0-9._-]*)+");
+
+    // GWT names its compiled output after the hash of its content
+    private static final Pattern FINGERPRINTED_PATTERN = Pattern.compile(".*\\.cache\\.[a-z]+");
+
+    private static final Pattern COMPRESSIBLE_PATTERN = Pattern
+        .compile("text/.*|application/(javascript|json|xml)|image/svg\\+xml");
+
+    private static final long IMMUTABLE_MAX_AGE = TimeUnit.DAYS.toSeconds(365);
+
+    // Known resources only, unknown paths are not remembered so that they can not fill up the map
+    private final Map<String, StaticResource> resources = new ConcurrentHashMap<>();
+
+    private final LongAdder servedResources = new LongAdder();
+
+    private final LongAdder notModifiedResources = new LongAdder();
+
+    private final LongAdder sentFiles = new LongAdder();
+
+    @Value("${static.resources.cache-directory}")
+    private String cacheDirectory;
+
+    @Value("${static.resources.max-age:3600}")
+    private long maxAge;
+
+    private Path root;
+
+    @Override
+    protected void initFilterBean() throws ServletException {
+        // Not a @PostConstruct method, since Tomcat processes those again and rejects the ones that throw
+        try {
+            root = Files.createDirectories(Paths.get(cacheDirectory));
+        } catch (IOException ex) {
+            throw new ServletException("Could not create " + cacheDirectory, ex);
+        }
+    }
+
+    public long getServedResources() {
+        return servedResources.sum();
+    }
+
+    public long getNotModifiedResources() {
+        return notModifiedResources.sum();
+    }
+
+    public long getSentFiles() {
+        return sentFiles.sum();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        boolean get = "GET".equals(request.getMethod());
+        if (!(get || "HEAD".equals(request.getMethod())) || !PATH_PATTERN.matcher(path).matches()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        StaticResource resource = resources.get(path);
+        if (resource == null) {
+            resource = load(path, request.getServletContext().getMimeType(path)).orElse(null);
+            if (resource == null) {
+                filterChain.doFilter(request, response);
+                return;
+            }
+            resources.putIfAbsent(path, resource);
+        }
+        Variant variant = resource.select(request.getHeader("Accept-Encoding"));
+
+        response.setHeader("ETag", variant.etag);
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("Cache-Control", FINGERPRINTED_PATTERN.matcher(path).matches()
+            ? "public, max-age=" + IMMUTABLE_MAX_AGE + ", immutable" : "public, max-age=" + maxAge);
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        if (matches(request.getHeader("If-None-Match"), variant.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            notModifiedResources.increment();
+            return;
+        }
+        response.setContentType(resource.contentType);
+        if (variant.encoding != null) {
+            response.setHeader("Content-Encoding", variant.encoding);
+        }
+        response.setContentLengthLong(variant.length);
+        servedResources.increment();
+        if (!get) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat sends the file straight from the page cache once the request has been handled
+            request.setAttribute(SENDFILE_FILENAME, variant.file.toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, variant.length);
+            sentFiles.increment();
+        } else {
+            Files.copy(variant.file, response.getOutputStream());
+        }
+    }
+
+    private Optional<StaticResource> load(String path, String contentType) {
+        String name = path.substring(1);
+        try {
+            byte[] identity = read(name);
+            if (identity == null) {
+                return Optional.empty();
+            }
+            String type = contentType != null ? contentType : "application/octet-stream";
+            byte[] brotli = read(name + ".br");
+            byte[] gzip = read(name + ".gz");
+            if (gzip == null && COMPRESSIBLE_PATTERN.matcher(type).matches()) {
+                gzip = gzip(identity);
+            }
+            return Optional.of(new StaticResource(type, store(identity, null), store(brotli, "br"),
+                // Not worth it if it hardly gets smaller
+                gzip != null && gzip.length < identity.length * 0.9 ? store(gzip, "gzip") : null));
+        } catch (IOException ex) {
+            LOGGER.warn("Could not cache static resource {}", path, ex);
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] read(String name) throws IOException {
+        URL url = StaticResourceFilter.class.getClassLoader().getResource(name);
+        if (url == null || name.endsWith("/")) {
+            return null;
+        }
+        try (InputStream in = url.openStream()) {
+            return StreamUtils.copyToByteArray(in);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Variant store(byte[] content, String encoding) throws IOException {
+        if (content == null) {
+            return null;
+        }
+        String hash;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            hash = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        // Files are named after their content, so concurrent requests and nodes sharing the directory agree on them
+        Path file = root.resolve(hash);
+        if (!Files.exists(file)) {
+            Path tmp = Files.createTempFile(root, hash, ".tmp");
+            Files.write(tmp, content);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new Variant(file, content.length, encoding, '"' + hash.substring(0, 27) + '"');
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            if (parameters[0].trim().toLowerCase(Locale.ROOT).equals(encoding)) {
+                for (int i = 1; i < parameters.length; ++i) {
+                    if (parameters[i].trim().matches("q=0(\\.0*)?")) {
+                        return false; // Explicitly refused
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class StaticResource {
+
+        final String contentType;
+
+        final Variant identity;
+
+        final Variant brotli;
+
+        final Variant gzip;
+
+        StaticResource(String contentType, Variant identity, Variant brotli, Variant gzip) {
+            this.contentType = contentType;
+            this.identity = identity;
+            this.brotli = brotli;
+            this.gzip = gzip;
+        }
+
+        Variant select(String acceptEncoding) {
+            if (brotli != null && accepts(acceptEncoding, "br")) {
+                return brotli;
+            }
+            if (gzip != null && accepts(acceptEncoding, "gzip")) {
+                return gzip;
+            }
+            return identity;
+        }
+    }
+
+    private static final class Variant {
+
+        final Path file;
+
+        final long length;
+
+        final String encoding;
+
+        final String etag;
+
+        Variant(Path file, long length, String encoding, String etag) {
+            this.file = file;
+            this.length = length;
+            this.encoding = encoding;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel. Scheduling and cancelling a timeout are constant time, and advancing the wheel by one
+ * tick only touches the timeouts that are due, no matter how many timeouts are scheduled.
+ * <p>
+ * There are four levels of 64 slots. A slot on the first level covers one tick, a slot on the second level 64 ticks,
+ * and so on. Timeouts are kept on the lowest level that can hold them and move down a level every time the wheel
+ * below it has turned once. Timeouts further away than the wheel can hold wait on the top level and are placed again
+ * when their slot comes up. The wheel is not thread safe; callers synchronize on it.
+ */
+public final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+
+    private final long startMillis;
+
+    private final Timeout<T>[][] slots;
+
+    private long currentTick;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = nowMillis;
+        slots = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; ++level) {
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                // Every slot is a circular list with a sentinel, so that unlinking needs no special cases
+                Timeout<T> sentinel = new Timeout<>(null);
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedules the given value to expire at the given time, rounded up to the next tick.
+     */
+    public Timeout<T> schedule(T value, long deadlineMillis) {
+        Timeout<T> timeout = new Timeout<>(value);
+        reschedule(timeout, deadlineMillis);
+        return timeout;
+    }
+
+    /**
+     * Moves the given timeout to a new deadline, scheduling it again if it has already expired or been cancelled.
+     */
+    public void reschedule(Timeout<T> timeout, long deadlineMillis) {
+        cancel(timeout);
+        long deadlineTick = (deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        timeout.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+        place(timeout);
+        ++size;
+    }
+
+    /**
+     * Removes the given timeout from the wheel. Returns false if it was not scheduled.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout.next == null) {
+            return false;
+        }
+        unlink(timeout);
+        --size;
+        return true;
+    }
+
+    /**
+     * Turns the wheel up to the given time and returns the values whose timeouts have expired.
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long nowTick = (nowMillis - startMillis) / tickMillis;
+        while (currentTick < nowTick) {
+            ++currentTick;
+            // Move the timeouts of the slots that have come up on the higher levels down, top level first
+            for (int level = LEVELS - 1; level > 0; --level) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                }
+            }
+            Timeout<T> sentinel = slots[0][(int) currentTick & SLOT_MASK];
+            while (sentinel.next != sentinel) {
+                Timeout<T> timeout = sentinel.next;
+                unlink(timeout);
+                if (timeout.deadlineTick <= currentTick) {
+                    --size;
+                    expired.add(timeout.value);
+                } else {
+                    place(timeout); // Was too far away for the wheel, or is due on a later turn
+                }
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> sentinel = slots[level][slot];
+        while (sentinel.next != sentinel) {
+            Timeout<T> timeout = sentinel.next;
+            unlink(timeout);
+            place(timeout);
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            ++level;
+        }
+        long tick = Math.min(timeout.deadlineTick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        Timeout<T> sentinel = slots[level][(int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK];
+        timeout.previous = sentinel.previous;
+        timeout.next = sentinel;
+        sentinel.previous.next = timeout;
+        sentinel.previous = timeout;
+    }
+
+    private static <T> void unlink(Timeout<T> timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+    }
+
+    /**
+     * A scheduled value, used to move or cancel it.
+     */
+    public static final class Timeout<T> {
+
+        private final T value;
+
+        private long deadlineTick;
+
+        private Timeout<T> previous;
+
+        private Timeout<T> next;
+
+        private Timeout(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * A file of user accounts that is memory-mapped instead of read onto the heap, so opening it takes the same time no
+ * matter how many users it contains. Usernames are case insensitive.
+ * <p>
+ * The file starts with a fixed size header, followed by the user records and an open addressing hash index. Each
+ * index slot packs the upper 24 bits of the username hash and the 40 bit file offset of the record into a
+ * {@code long}, so a lookup usually reads a single slot and a single record.
+ * <p>
+ * Users can not be added or removed, but passwords can be replaced by passwords of the same encoded length, such as
+ * a BCrypt hash by another BCrypt hash. Lookups do not block on updates; they are retried if an update ran meanwhile.
+ */
+public final class UserStore {
+
+    private static final int MAGIC = 0x55535253; // "USRS"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int OFFSET_BITS = 40;
+
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final MappedByteBuffer buffer;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final long fingerprint;
+
+    private final int userCount;
+
+    private final int indexSlots;
+
+    private final int indexOffset;
+
+    private UserStore(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a user store");
+        }
+        fingerprint = buffer.getLong(8);
+        userCount = buffer.getInt(16);
+        indexSlots = buffer.getInt(20);
+        indexOffset = (int) buffer.getLong(24);
+    }
+
+    /**
+     * Maps the store in the given file into memory.
+     */
+    public static UserStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("User stores larger than 2 GB are not supported");
+            }
+            // The mapping stays valid after the channel has been closed
+            return new UserStore(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the given users into a new store file, replacing any existing one once the new file is complete. The
+     * fingerprint is stored as is and can be used to tell whether the file is up to date with its source.
+     */
+    public static void write(Path file, long fingerprint, Iterable<StoredUser> users) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                Index index = new Index();
+                channel.position(HEADER_SIZE);
+                // The records are streamed to the file, only their hashes and offsets are kept on the heap
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+                long offset = HEADER_SIZE;
+                for (StoredUser user : users) {
+                    index.add(hash(user.getUsername()), offset);
+                    offset += writeRecord(out, user);
+                }
+                long[] slots = index.build();
+                for (long slot : slots) {
+                    out.writeLong(slot);
+                }
+                out.flush();
+                if (offset + slots.length * 8L > Integer.MAX_VALUE) {
+                    throw new IOException("User stores larger than 2 GB are not supported");
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(index.size).putInt(slots.length)
+                    .putLong(offset).flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns the fingerprint that the store was written with.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int size() {
+        return userCount;
+    }
+
+    /**
+     * Returns the user with the given username, or null if there is no such user.
+     */
+    public StoredUser find(String username) {
+        String key = username.toLowerCase(Locale.ROOT);
+        long stamp = lock.tryOptimisticRead();
+        StoredUser user = read(key);
+        if (!lock.validate(stamp)) {
+            // A password was replaced meanwhile and may have been read half way through
+            stamp = lock.readLock();
+            try {
+                user = read(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Replaces the passwords of the given users and forces the changes to disk. Passwords of unknown users and
+     * passwords whose encoded length differs from the stored one are skipped. Returns the number of replaced
+     * passwords.
+     */
+    public int updatePasswords(Map<String, String> passwords) {
+        int updated = 0;
+        long stamp = lock.writeLock();
+        try {
+            for (Map.Entry<String, String> entry : passwords.entrySet()) {
+                int offset = findRecord(entry.getKey().toLowerCase(Locale.ROOT));
+                if (offset < 0) {
+                    continue;
+                }
+                int passwordOffset = offset + 1 + 2 + (buffer.getShort(offset + 1) & 0xFFFF);
+                byte[] password = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                if (password.length != (buffer.getShort(passwordOffset) & 0xFFFF)) {
+                    continue;
+                }
+                for (int i = 0; i < password.length; ++i) {
+                    buffer.put(passwordOffset + 2 + i, password[i]);
+                }
+                ++updated;
+            }
+            buffer.force();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return updated;
+    }
+
+    private StoredUser read(String key) {
+        int offset = findRecord(key);
+        return offset < 0 ? null : readRecord(offset);
+    }
+
+    private int findRecord(String key) {
+        long hash = hash(key);
+        long tag = hash >>> OFFSET_BITS;
+        int mask = indexSlots - 1;
+        for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+            long entry = buffer.getLong(indexOffset + slot * 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry >>> OFFSET_BITS == tag) {
+                int offset = (int) (entry & OFFSET_MASK);
+                if (readString(new int[] { offset + 1 }).equals(key)) {
+                    return offset;
+                }
+            }
+        }
+    }
+
+    private static long hash(String key) {
+        // FNV-1a followed by a finalizer, so that both the slot and the tag bits are well mixed
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int writeRecord(DataOutputStream out, StoredUser user) throws IOException {
+        int size = 2;
+        out.writeByte(user.isEnabled() ? 1 : 0);
+        size += writeString(out, user.getUsername());
+        size += writeString(out, user.getPassword());
+        out.writeByte(user.getAuthorities().size());
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            size += writeString(out, authority.getAuthority());
+        }
+        return size;
+    }
+
+    private static int writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Value too long: " + value);
+        }
+        out.write(bytes.length >>> 8);
+        out.write(bytes.length);
+        out.write(bytes);
+        return 2 + bytes.length;
+    }
+
+    private StoredUser readRecord(int offset) {
+        int[] position = { offset + 1 };
+        boolean enabled = buffer.get(offset) != 0;
+        String username = readString(position);
+        String password = readString(position);
+        int authorityCount = buffer.get(position[0]++) & 0xFF;
+        String[] authorities = new String[authorityCount];
+        for (int i = 0; i < authorityCount; ++i) {
+            authorities[i] = readString(position);
+        }
+        return new StoredUser(username, password, enabled, authorities);
+    }
+
+    private String readString(int[] position) {
+        int length = buffer.getShort(position[0]) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        // Absolute reads only, the buffer is shared by all threads
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = buffer.get(position[0] + 2 + i);
+        }
+        position[0] += 2 + length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The hashes and offsets of the records written so far, turned into index slots at the end.
+     */
+    private static final class Index {
+
+        private long[] hashes = new long[1024];
+
+        private long[] offsets = new long[1024];
+
+        private int size;
+
+        void add(long hash, long offset) throws IOException {
+            if (offset > OFFSET_MASK) {
+                throw new IOException("Too many users");
+            }
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            hashes[size] = hash;
+            offsets[size] = offset;
+            ++size;
+        }
+
+        long[] build() {
+            // At most half full, which keeps the probe sequences short
+            long[] slots = new long[Math.max(2, Integer.highestOneBit(Math.max(1, size) * 2 - 1) * 2)];
+            int mask = slots.length - 1;
+            for (int i = 0; i < size; ++i) {
+                int slot = (int) hashes[i] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = (hashes[i] >>> OFFSET_BITS) << OFFSET_BITS | offsets[i];
+            }
+            return slots;
+        }
+    }
+
+    /**
+     * An immutable user account as stored in a {@link UserStore}. The username is always in lower case.
+     */
+    public static final class StoredUser {
+
+        private final String username;
+
+        private final String password;
+
+        private final boolean enabled;
+
+        private final List<GrantedAuthority> authorities;
+
+        public StoredUser(String username, String password, boolean enabled, String... authorities) {
+            this.username = username.toLowerCase(Locale.ROOT);
+            this.password = password;
+            this.enabled = enabled;
+            List<GrantedAuthority> list = new ArrayList<>(authorities.length);
+            for (String authority : authorities) {
+                list.add(new SimpleGrantedAuthority(authority));
+            }
+            this.authorities = Collections.unmodifiableList(list);
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public List<GrantedAuthority> getAuthorities() {
+            return authorities;
+        }
+    }
+}
@@ -1,47 +1,136 @@
 package org.vaadin.peholmst.samples.springsecurity.hybrid;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolderStrategy;
-import org.springframework.security.core.context.SecurityContextImpl;
 
 import com.vaadin.server.VaadinSession;
 
 /**
  * A custom {@link SecurityContextHolderStrategy} that stores the {@link SecurityContext} in the Vaadin Session.
+ * <p>
+ * The context is kept in an atomic holder that is attached to the session once, when the session is initialized.
+ * The holder is cached per thread, so that reading or replacing the context does not need the session lock. Only the
+ * first lookup of a session on a thread needs the lock, and {@link #clearThreadCache()} drops the cached holder at
+ * the end of each request.
+ * <p>
+ * Threads without a Vaadin session, such as the workers of the {@link BackgroundExecutor}, can have a context of their
+ * own that is set with {@link #setContext(SecurityContext)} and removed with {@link #clearContext()}.
  */
 public class VaadinSessionSecurityContextHolderStrategy implements SecurityContextHolderStrategy {
 
+    private static final ThreadLocal<CachedHolder> THREAD_CACHE = new ThreadLocal<>();
+
+    private static final ThreadLocal<ContextHolder> DETACHED_HOLDER = new ThreadLocal<>();
+
     @Override
     public void clearContext() {
-        getSession().setAttribute(SecurityContext.class, null);
+        if (VaadinSession.getCurrent() == null) {
+            DETACHED_HOLDER.remove();
+        } else {
+            getHolder(false).set(null);
+        }
     }
 
     @Override
     public SecurityContext getContext() {
-        VaadinSession session = getSession();
-        SecurityContext context = session.getAttribute(SecurityContext.class);
-        if (context == null) {
-            context = createEmptyContext();
-            session.setAttribute(SecurityContext.class, context);
+        ContextHolder holder = getHolder(false);
+        SecurityContext context = holder.get();
+        while (context == null) {
+            // The empty context is stored in the holder only, the session attributes are never touched
+            SecurityContext emptyContext = createEmptyContext();
+            context = holder.compareAndSet(null, emptyContext) ? emptyContext : holder.get();
         }
         return context;
     }
 
     @Override
     public void setContext(SecurityContext context) {
-        getSession().setAttribute(SecurityContext.class, context);
+        getHolder(true).set(context);
     }
 
     @Override
     public SecurityContext createEmptyContext() {
-        return new SecurityContextImpl();
+        return new CompiledSecurityContext();
+    }
+
+    /**
+     * Attaches a context holder to the given session unless it already has one. The session must be locked.
+     */
+    public static void attach(VaadinSession session) {
+        if (session.getAttribute(ContextHolder.class) == null) {
+            session.setAttribute(ContextHolder.class, new ContextHolder());
+        }
     }
 
-    private static VaadinSession getSession() {
+    /**
+     * Returns the context stored in the given session, or null if it has none. Unlike {@link #getContext()}, this
+     * works for any session and not only for the one bound to the current thread.
+     */
+    public static SecurityContext peekContext(VaadinSession session) {
+        return lookupHolder(session).get();
+    }
+
+    /**
+     * Drops the holder that has been cached for the current thread.
+     */
+    public static void clearThreadCache() {
+        THREAD_CACHE.remove();
+    }
+
+    private static ContextHolder getHolder(boolean detach) {
         VaadinSession session = VaadinSession.getCurrent();
         if (session == null) {
-            throw new IllegalStateException("No VaadinSession bound to current thread");
+            ContextHolder detached = DETACHED_HOLDER.get();
+            if (detached == null) {
+                if (!detach) {
+                    throw new IllegalStateException("No VaadinSession or SecurityContext bound to current thread");
+                }
+                detached = new ContextHolder();
+                DETACHED_HOLDER.set(detached);
+            }
+            return detached;
+        }
+        CachedHolder cached = THREAD_CACHE.get();
+        if (cached != null && cached.session.get() == session) {
+            return cached.holder;
+        }
+        ContextHolder holder = lookupHolder(session);
+        THREAD_CACHE.set(new CachedHolder(session, holder));
+        return holder;
+    }
+
+    private static ContextHolder lookupHolder(VaadinSession session) {
+        if (session.hasLock()) {
+            attach(session);
+            return session.getAttribute(ContextHolder.class);
+        }
+        session.lock();
+        try {
+            attach(session);
+            return session.getAttribute(ContextHolder.class);
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static final class ContextHolder extends AtomicReference<SecurityContext> {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class CachedHolder {
+
+        // Weak, so that the cache does not keep closed sessions in memory
+        final WeakReference<VaadinSession> session;
+
+        final ContextHolder holder;
+
+        CachedHolder(VaadinSession session, ContextHolder holder) {
+            this.session = new WeakReference<>(session);
+            this.holder = holder;
         }
-        return session;
     }
 }
@@ -0,0 +1,136 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.util.CurrentInstance;
+
+public class AuthenticationExecutorTest {
+
+    private final AuthenticationExecutor executor = new AuthenticationExecutor();
+
+    @Before
+    public void setUp() {
+        SecurityContextHolder.setStrategyName(VaadinSessionSecurityContextHolderStrategy.class.getName());
+        ReflectionTestUtils.setField(executor, "threads", 1);
+        ReflectionTestUtils.setField(executor, "queueDepth", 1);
+        executor.start();
+    }
+
+    @After
+    public void tearDown() {
+        executor.stop();
+        VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+        CurrentInstance.clearAll();
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_THREADLOCAL);
+    }
+
+    @Test
+    public void authenticationDoesNotSeeTheSessionThatStartedTheWorker() throws Exception {
+        VaadinSession session = createSession();
+        VaadinSession.setCurrent(session);
+        SecurityContext sessionContext = SecurityContextHolder.getContext();
+        sessionContext.setAuthentication(
+            SessionAuthentication.of("admin", AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+
+        Object[] seen = new Object[2];
+        executor.authenticationManager = request -> {
+            seen[0] = VaadinSession.getCurrent();
+            seen[1] = SecurityContextHolder.getContext().getAuthentication();
+            SecurityContextHolder.getContext().setAuthentication(request);
+            return authenticated(request);
+        };
+        // On platform threads, the worker is created here and inherits the current instances of this thread
+        Authentication token = executor.authenticate(new UsernamePasswordAuthenticationToken("user", "user"))
+            .get(1, TimeUnit.MINUTES);
+
+        assertEquals("user", token.getName());
+        assertNull("Worker inherited the session", seen[0]);
+        assertNull("Worker saw the context of the session", seen[1]);
+        assertSame(sessionContext, VaadinSessionSecurityContextHolderStrategy.peekContext(session));
+        assertEquals("admin", sessionContext.getAuthentication().getName());
+    }
+
+    @Test
+    public void failuresCompleteTheFutureExceptionally() throws Exception {
+        executor.authenticationManager = request -> {
+            throw new BadCredentialsException("Bad credentials");
+        };
+        try {
+            executor.authenticate(new UsernamePasswordAuthenticationToken("user", "wrong")).get(1, TimeUnit.MINUTES);
+            fail("Authentication did not fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BadCredentialsException);
+        }
+        assertEquals(0, executor.getPendingAuthentications());
+    }
+
+    @Test
+    public void requestsBeyondTheQueueAreRejected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.authenticationManager = request -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return authenticated(request);
+        };
+        CompletableFuture<Authentication> running = executor.authenticate(
+            new UsernamePasswordAuthenticationToken("user1", "user1"));
+        CompletableFuture<Authentication> queued = executor.authenticate(
+            new UsernamePasswordAuthenticationToken("user2", "user2"));
+        CompletableFuture<Authentication> rejected = executor.authenticate(
+            new UsernamePasswordAuthenticationToken("user3", "user3"));
+
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, executor.getRejectedAuthentications());
+        release.countDown();
+        assertEquals("user1", running.get(1, TimeUnit.MINUTES).getName());
+        assertEquals("user2", queued.get(1, TimeUnit.MINUTES).getName());
+    }
+
+    private static Authentication authenticated(Authentication request) {
+        return SessionAuthentication.of(request.getName(), AuthorityUtils.createAuthorityList("ROLE_USER"));
+    }
+
+    private static VaadinSession createSession() {
+        Lock lock = new ReentrantLock();
+        return new VaadinSession(mock(VaadinService.class)) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+/**
+ * Fills the authority index, which is static; the test must have its JVM to itself.
+ */
+public class CompiledAuthoritiesTest {
+
+    @Test
+    public void roleHierarchyIsAppliedToAuthoritiesThatCouldNotBeIndexed() {
+        // Fill the index before any role has been seen, so that no role gets a bit
+        for (int i = 0; CompiledAuthorities.register("FILLER_" + i) >= 0; ++i) {
+        }
+        assertEquals(-1, CompiledAuthorities.register("ROLE_USER"));
+        assertEquals(-1, CompiledAuthorities.register("ROLE_ADMIN"));
+
+        Authentication admin = SessionAuthentication.of("admin", AuthorityUtils.createAuthorityList("ROLE_ADMIN"));
+        Authentication user = SessionAuthentication.of("user", AuthorityUtils.createAuthorityList("ROLE_USER"));
+        long adminMask = CompiledAuthorities.compile(admin);
+        long userMask = CompiledAuthorities.compile(user);
+
+        assertTrue(CompiledAuthorities.hasAuthority(adminMask, admin, "ROLE_ADMIN"));
+        assertTrue(CompiledAuthorities.hasAuthority(adminMask, admin, "ROLE_USER"));
+        assertTrue(CompiledAuthorities.hasAuthority(userMask, user, "ROLE_USER"));
+        assertFalse(CompiledAuthorities.hasAuthority(userMask, user, "ROLE_ADMIN"));
+    }
+}
@@ -0,0 +1,97 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.access.annotation.SecuredAnnotationSecurityMetadataSource;
+import org.springframework.security.access.intercept.aopalliance.MethodSecurityInterceptor;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.access.vote.RoleVoter;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class CompiledSecuredMethodInterceptorTest {
+
+    private CompiledSecuredMethodInterceptor interceptor;
+
+    @Before
+    public void setUp() {
+        MethodSecurityInterceptor template = new MethodSecurityInterceptor();
+        template.setSecurityMetadataSource(new SecuredAnnotationSecurityMetadataSource());
+        template.setAccessDecisionManager(
+            new AffirmativeBased(Collections.<AccessDecisionVoter<?>>singletonList(new RoleVoter())));
+        template.setAuthenticationManager(mock(AuthenticationManager.class));
+        interceptor = new CompiledSecuredMethodInterceptor(template);
+
+        SecurityContext context = new CompiledSecurityContext();
+        context.setAuthentication(SessionAuthentication.of("user", AuthorityUtils.createAuthorityList("ROLE_USER")));
+        SecurityContextHolder.setContext(context);
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void rolesAreCompiledForEveryImplementationOfAMethod() throws Exception {
+        Operation userOperation = secure(new UserOperation());
+        Operation adminOperation = secure(new AdminOperation());
+
+        userOperation.run();
+        try {
+            adminOperation.run();
+            fail("The roles of the other implementation were used");
+        } catch (AccessDeniedException ex) {
+            // Expected
+        }
+        userOperation.run();
+    }
+
+    @Test
+    public void isGrantedTellsImplementationsOfAMethodApart() throws Exception {
+        assertFalse(interceptor.isGranted(Operation.class.getMethod("run"), AdminOperation.class));
+        assertTrue(interceptor.isGranted(Operation.class.getMethod("run"), UserOperation.class));
+        assertFalse(interceptor.isGranted(Operation.class.getMethod("run"), AdminOperation.class));
+    }
+
+    private Operation secure(Operation operation) {
+        ProxyFactory proxyFactory = new ProxyFactory(operation);
+        proxyFactory.addAdvice(interceptor);
+        return (Operation) proxyFactory.getProxy();
+    }
+
+    public interface Operation {
+
+        void run();
+    }
+
+    public static class UserOperation implements Operation {
+
+        @Secured("ROLE_USER")
+        @Override
+        public void run() {
+        }
+    }
+
+    public static class AdminOperation implements Operation {
+
+        @Secured("ROLE_ADMIN")
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+public class CompiledSecurityContextTest {
+
+    private static final Authentication ADMIN = SessionAuthentication.of("admin",
+        AuthorityUtils.createAuthorityList("ROLE_ADMIN"));
+
+    private static final Authentication USER = SessionAuthentication.of("user",
+        AuthorityUtils.createAuthorityList("ROLE_USER"));
+
+    @Test
+    public void emptyContextHasNoAuthorities() {
+        CompiledSecurityContext context = new CompiledSecurityContext();
+
+        assertNull(context.getAuthentication());
+        assertEquals(0L, context.getAuthorityMask());
+        assertFalse(context.hasAuthority("ROLE_USER"));
+    }
+
+    @Test
+    public void readersNeverSeeTheMaskOfAnotherAuthentication() throws Exception {
+        CompiledSecurityContext context = new CompiledSecurityContext();
+        context.setAuthentication(USER);
+        long adminMask = CompiledAuthorities.compile(ADMIN);
+        long userMask = CompiledAuthorities.compile(USER);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                CompiledSecurityContext.Snapshot snapshot = context.getSnapshot();
+                long expected = snapshot.getAuthentication() == ADMIN ? adminMask : userMask;
+                if (snapshot.getAuthorityMask() != expected) {
+                    failure.set("Mask " + snapshot.getAuthorityMask() + " with " + snapshot.getAuthentication());
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200_000; ++i) {
+            context.setAuthentication(i % 2 == 0 ? ADMIN : USER);
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    public void maskIsRecompiledAfterDeserialization() throws Exception {
+        CompiledSecurityContext context = new CompiledSecurityContext();
+        context.setAuthentication(ADMIN);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(context);
+        }
+
+        CompiledSecurityContext copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (CompiledSecurityContext) in.readObject();
+        }
+
+        assertEquals("admin", copy.getAuthentication().getName());
+        assertEquals(context.getAuthorityMask(), copy.getAuthorityMask());
+        assertTrue(copy.hasAuthority("ROLE_USER"));
+    }
+}
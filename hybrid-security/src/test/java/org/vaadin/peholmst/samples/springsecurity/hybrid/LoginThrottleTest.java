@@ -0,0 +1,153 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class LoginThrottleTest {
+
+    // Slow enough that no token is refilled while a test runs
+    private static final double NO_REFILL = 0.001;
+
+    @Test
+    public void usernameIsRejectedAfterItsBurst() {
+        LoginThrottle throttle = createThrottle(3, NO_REFILL, 100, NO_REFILL, 100);
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(throttle.tryAcquire("admin", "10.0.0." + i));
+        }
+        assertFalse(throttle.tryAcquire("admin", "10.0.0.9"));
+        assertFalse("Usernames differing in case share a bucket", throttle.tryAcquire("ADMIN", "10.0.0.9"));
+        assertTrue(throttle.tryAcquire("user", "10.0.0.9"));
+        assertEquals(2, throttle.getRejectedByUsername());
+        assertEquals(0, throttle.getRejectedByAddress());
+    }
+
+    @Test
+    public void addressIsRejectedAfterItsBurst() {
+        LoginThrottle throttle = createThrottle(100, NO_REFILL, 2, NO_REFILL, 100);
+        assertTrue(throttle.tryAcquire("a", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("b", "10.0.0.1"));
+        assertFalse(throttle.tryAcquire("c", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("c", "10.0.0.2"));
+        assertEquals(1, throttle.getRejectedByAddress());
+    }
+
+    @Test
+    public void tokensAreRefilledOverTime() throws InterruptedException {
+        // One token per millisecond
+        LoginThrottle throttle = createThrottle(1, 1000, 100, NO_REFILL, 100);
+        assertTrue(throttle.tryAcquire("admin", "10.0.0.1"));
+        assertFalse(throttle.tryAcquire("admin", "10.0.0.1"));
+        Thread.sleep(20);
+        assertTrue(throttle.tryAcquire("admin", "10.0.0.1"));
+    }
+
+    @Test
+    public void attemptsRejectedForTheirAddressDoNotUseUpTheUsername() {
+        LoginThrottle throttle = createThrottle(2, NO_REFILL, 1, NO_REFILL, 100);
+        assertTrue(throttle.tryAcquire("victim", "10.0.0.1"));
+        for (int i = 0; i < 10; ++i) {
+            assertFalse(throttle.tryAcquire("victim", "10.0.0.1"));
+        }
+        assertTrue("The username still has a token left", throttle.tryAcquire("victim", "10.0.0.2"));
+        assertFalse(throttle.tryAcquire("victim", "10.0.0.3"));
+        assertEquals(10, throttle.getRejectedByAddress());
+        assertEquals(1, throttle.getRejectedByUsername());
+    }
+
+    @Test
+    public void attemptsRejectedGloballyGiveTheirTokensBack() {
+        LoginThrottle throttle = createThrottle(1, NO_REFILL, 1, NO_REFILL, 1);
+        assertTrue(throttle.tryAcquire("a", "10.0.0.1"));
+        assertFalse(throttle.tryAcquire("b", "10.0.0.2"));
+        assertEquals(1, throttle.getRejectedGlobally());
+
+        // Neither the username nor the address lost its only token
+        ReflectionTestUtils.setField(throttle, "globalBurst", 100);
+        ReflectionTestUtils.invokeMethod(throttle, "init");
+        assertTrue(throttle.tryAcquire("b", "10.0.0.2"));
+    }
+
+    @Test
+    public void burstIsNeverExceededByConcurrentAttempts() throws Exception {
+        int burst = 500;
+        int threads = 8;
+        LoginThrottle throttle = createThrottle(burst, NO_REFILL, 10_000, NO_REFILL, 10_000);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                String address = "10.0.0." + t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int acquired = 0;
+                    for (int i = 0; i < burst; ++i) {
+                        if (throttle.tryAcquire("admin", address)) {
+                            ++acquired;
+                        }
+                    }
+                    return acquired;
+                }));
+            }
+            int acquired = 0;
+            for (Future<Integer> result : results) {
+                acquired += result.get(1, TimeUnit.MINUTES);
+            }
+            assertEquals(burst, acquired);
+            assertEquals(threads * burst - burst, throttle.getRejectedByUsername());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void disabledThrottleAcceptsEverything() {
+        LoginThrottle throttle = createThrottle(1, NO_REFILL, 1, NO_REFILL, 1);
+        ReflectionTestUtils.setField(throttle, "enabled", false);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(throttle.tryAcquire("admin", "10.0.0.1"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stripesMustBeAPowerOfTwo() {
+        LoginThrottle throttle = new LoginThrottle();
+        ReflectionTestUtils.setField(throttle, "stripes", 1000);
+        ReflectionTestUtils.setField(throttle, "usernameBurst", 1);
+        ReflectionTestUtils.setField(throttle, "addressBurst", 1);
+        ReflectionTestUtils.setField(throttle, "globalBurst", 1);
+        throttle.init();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void burstMustFitIntoTheBucket() {
+        createThrottle(20_000, NO_REFILL, 1, NO_REFILL, 1);
+    }
+
+    private static LoginThrottle createThrottle(int usernameBurst, double usernamePerSecond, int addressBurst,
+        double addressPerSecond, int globalBurst) {
+        LoginThrottle throttle = new LoginThrottle();
+        ReflectionTestUtils.setField(throttle, "enabled", true);
+        ReflectionTestUtils.setField(throttle, "stripes", 1 << 16);
+        ReflectionTestUtils.setField(throttle, "usernameBurst", usernameBurst);
+        ReflectionTestUtils.setField(throttle, "usernamePerSecond", usernamePerSecond);
+        ReflectionTestUtils.setField(throttle, "addressBurst", addressBurst);
+        ReflectionTestUtils.setField(throttle, "addressPerSecond", addressPerSecond);
+        ReflectionTestUtils.setField(throttle, "globalBurst", globalBurst);
+        ReflectionTestUtils.setField(throttle, "globalPerSecond", NO_REFILL);
+        throttle.init();
+        return throttle;
+    }
+}
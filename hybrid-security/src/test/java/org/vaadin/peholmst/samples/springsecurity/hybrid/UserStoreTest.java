@@ -0,0 +1,176 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+public class UserStoreTest {
+
+    private static final int USERS = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyUserIsFoundThroughTheIndex() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        List<UserStore.StoredUser> users = new ArrayList<>();
+        for (int i = 0; i < USERS; ++i) {
+            users.add(new UserStore.StoredUser("User" + i, "password" + i, i % 10 != 0, "ROLE_USER", "ROLE_" + i));
+        }
+        UserStore.write(file, 42L, users);
+
+        UserStore store = UserStore.open(file);
+        assertEquals(42L, store.getFingerprint());
+        assertEquals(USERS, store.size());
+        for (int i = 0; i < USERS; ++i) {
+            UserStore.StoredUser user = store.find("user" + i);
+            assertNotNull("user" + i, user);
+            assertEquals("user" + i, user.getUsername());
+            assertEquals("password" + i, user.getPassword());
+            assertEquals(i % 10 != 0, user.isEnabled());
+            assertEquals(AuthorityUtils.createAuthorityList("ROLE_USER", "ROLE_" + i), user.getAuthorities());
+        }
+        assertEquals("user123", store.find("USER123").getUsername());
+        // Misses end at the first empty slot, also after probing past other users
+        for (int i = USERS; i < 2 * USERS; ++i) {
+            assertNull(store.find("user" + i));
+        }
+    }
+
+    @Test
+    public void emptyStoreFindsNobody() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        UserStore.write(file, 1L, Collections.emptyList());
+
+        UserStore store = UserStore.open(file);
+        assertEquals(0, store.size());
+        assertNull(store.find("admin"));
+    }
+
+    @Test
+    public void recordsWithoutAuthoritiesAndWithMultiByteCharacters() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        UserStore.write(file, 1L, Arrays.asList(new UserStore.StoredUser("J\u00fcrgen", "p\u00e4ssword", true),
+            new UserStore.StoredUser("admin", "", false, "ROLE_ADMIN")));
+
+        UserStore store = UserStore.open(file);
+        assertEquals("p\u00e4ssword", store.find("J\u00dcRGEN").getPassword());
+        assertTrue(store.find("j\u00fcrgen").getAuthorities().isEmpty());
+        assertEquals("", store.find("admin").getPassword());
+        assertFalse(store.find("admin").isEnabled());
+    }
+
+    @Test
+    public void passwordsOfTheSameLengthAreReplacedInPlace() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        UserStore.write(file, 1L, Arrays.asList(new UserStore.StoredUser("admin", "aaaa", true, "ROLE_ADMIN"),
+            new UserStore.StoredUser("user", "bbbb", true, "ROLE_USER")));
+        UserStore store = UserStore.open(file);
+
+        Map<String, String> passwords = new HashMap<>();
+        passwords.put("ADMIN", "cccc");
+        passwords.put("user", "longer");
+        passwords.put("nobody", "dddd");
+        assertEquals(1, store.updatePasswords(passwords));
+        assertEquals("cccc", store.find("admin").getPassword());
+        assertEquals("bbbb", store.find("user").getPassword());
+
+        // Written through to the file
+        UserStore reopened = UserStore.open(file);
+        assertEquals("cccc", reopened.find("admin").getPassword());
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_ADMIN"), reopened.find("admin").getAuthorities());
+    }
+
+    @Test
+    public void readersNeverSeeHalfReplacedPasswords() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        char[] first = new char[60];
+        char[] second = new char[60];
+        Arrays.fill(first, 'a');
+        Arrays.fill(second, 'b');
+        String firstPassword = new String(first);
+        String secondPassword = new String(second);
+        UserStore.write(file, 1L, Arrays.asList(new UserStore.StoredUser("admin", firstPassword, true, "ROLE_ADMIN"),
+            new UserStore.StoredUser("user", firstPassword, true, "ROLE_USER")));
+        UserStore store = UserStore.open(file);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                results.add(readers.submit(() -> {
+                    int reads = 0;
+                    while (running.get()) {
+                        String password = store.find(reads % 2 == 0 ? "admin" : "user").getPassword();
+                        if (!password.equals(firstPassword) && !password.equals(secondPassword)) {
+                            fail("Read a half replaced password " + password);
+                        }
+                        ++reads;
+                    }
+                    return reads;
+                }));
+            }
+            for (int i = 0; i < 2000; ++i) {
+                Map<String, String> passwords = new HashMap<>();
+                passwords.put("admin", i % 2 == 0 ? secondPassword : firstPassword);
+                passwords.put("user", i % 2 == 0 ? secondPassword : firstPassword);
+                assertEquals(2, store.updatePasswords(passwords));
+            }
+            running.set(false);
+            for (Future<Integer> result : results) {
+                assertTrue(result.get(1, TimeUnit.MINUTES) > 0);
+            }
+        } finally {
+            running.set(false);
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rewritingReplacesTheWholeFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.db");
+        UserStore.write(file, 1L, Collections.singletonList(new UserStore.StoredUser("admin", "p", true)));
+        UserStore.write(file, 2L, Collections.singletonList(new UserStore.StoredUser("user", "p", true)));
+
+        UserStore store = UserStore.open(file);
+        assertEquals(2L, store.getFingerprint());
+        assertNull(store.find("admin"));
+        assertNotNull(store.find("user"));
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals("No temporary files are left behind", 1, files.count());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreNotOpened() throws IOException {
+        Path file = folder.newFile("users.db").toPath();
+        Files.write(file, "admin:p:ROLE_ADMIN, and some more text to fill the header".getBytes("UTF-8"));
+        UserStore.open(file);
+    }
+}
@@ -0,0 +1,265 @@
+package org.vaadin.peholmst.samples.springsecurity.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.util.CurrentInstance;
+
+public class VaadinSessionSecurityContextHolderStrategyTest {
+
+    private static final String HOLDER_ATTRIBUTE = VaadinSessionSecurityContextHolderStrategy.class.getName()
+        + "$ContextHolder";
+
+    private static final int THREADS_PER_SESSION = 4;
+
+    private static final int ITERATIONS = 20_000;
+
+    private final VaadinSessionSecurityContextHolderStrategy strategy =
+        new VaadinSessionSecurityContextHolderStrategy();
+
+    @After
+    public void clearThread() {
+        VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+        CurrentInstance.clearAll();
+        strategy.clearContext(); // The detached context, as no session is bound anymore
+    }
+
+    @Test
+    public void contextIsSharedWithinSessionAndIsolatedBetweenSessions() throws Exception {
+        VaadinSession[] sessions = { createSession(), createSession() };
+        CyclicBarrier start = new CyclicBarrier(sessions.length * THREADS_PER_SESSION);
+        ExecutorService threads = Executors.newFixedThreadPool(sessions.length * THREADS_PER_SESSION);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int s = 0; s < sessions.length; ++s) {
+                for (int t = 0; t < THREADS_PER_SESSION; ++t) {
+                    VaadinSession session = sessions[s];
+                    String owner = "session" + s;
+                    // Every thread of a session writes, clears and reads the same context concurrently
+                    results.add(threads.submit(() -> {
+                        VaadinSession.setCurrent(session);
+                        try {
+                            start.await();
+                            for (int i = 0; i < ITERATIONS; ++i) {
+                                if (i % 7 == 0) {
+                                    strategy.clearContext();
+                                } else if (i % 3 == 0) {
+                                    strategy.setContext(createContext(owner + "-" + i));
+                                }
+                                SecurityContext context = strategy.getContext();
+                                assertNotNull(context);
+                                if (context.getAuthentication() != null
+                                    && !context.getAuthentication().getName().startsWith(owner + "-")) {
+                                    fail(owner + " saw " + context.getAuthentication().getName());
+                                }
+                                if (i % 1000 == 0) {
+                                    // Like the end of a request, the next lookup goes to the session
+                                    VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+                                }
+                            }
+                        } finally {
+                            VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+                            CurrentInstance.clearAll();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void contextSetOnOneThreadIsVisibleToOtherThreadsOfTheSession() throws Exception {
+        VaadinSession session = createSession();
+        SecurityContext context = createContext("user");
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            // Both threads cache the holder of the session before the context is set
+            threads.submit(() -> runIn(session, strategy::getContext)).get();
+            threads.submit(() -> runIn(session, () -> strategy.setContext(context))).get();
+
+            VaadinSession.setCurrent(session);
+            assertSame(context, strategy.getContext());
+            assertSame(context, VaadinSessionSecurityContextHolderStrategy.peekContext(session));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void threadCacheFollowsTheCurrentSession() {
+        VaadinSession first = createSession();
+        VaadinSession second = createSession();
+        SecurityContext context = createContext("user");
+
+        VaadinSession.setCurrent(first);
+        strategy.setContext(context);
+        VaadinSession.setCurrent(second);
+        assertNotSame(context, strategy.getContext());
+        assertNull(strategy.getContext().getAuthentication());
+        VaadinSession.setCurrent(first);
+        assertSame(context, strategy.getContext());
+    }
+
+    @Test
+    public void customServletDropsTheThreadCacheAtTheEndOfTheRequest() {
+        VaadinSession session = createSession();
+        SecurityContext context = createContext("user");
+        VaadinSession.setCurrent(session);
+        strategy.setContext(context);
+        replaceHolder(session);
+        assertSame("Cached holder is used until the request ends", context, strategy.getContext());
+
+        try {
+            // Not initialized, so the request fails, but the cache must be dropped anyway
+            new CustomServlet().service(mock(HttpServletRequest.class), mock(HttpServletResponse.class));
+        } catch (Exception | AssertionError ex) {
+            // Expected
+        }
+
+        VaadinSession.setCurrent(session); // Cleared by the servlet
+        assertNull(strategy.getContext().getAuthentication());
+    }
+
+    @Test
+    public void threadsWithoutSessionHaveDetachedContextsOfTheirOwn() throws Exception {
+        try {
+            strategy.getContext();
+            fail("No context may be created for a thread without session");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+        SecurityContext context = createContext("user");
+        strategy.setContext(context);
+        assertSame(context, strategy.getContext());
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            SecurityContext otherContext = createContext("other");
+            assertSame(otherContext, other.submit(() -> {
+                strategy.setContext(otherContext);
+                return strategy.getContext();
+            }).get());
+            assertSame(context, strategy.getContext());
+            // Dropped when the detached thread clears its context
+            assertEquals(IllegalStateException.class, other.submit(() -> {
+                strategy.clearContext();
+                try {
+                    strategy.getContext();
+                    return null;
+                } catch (IllegalStateException ex) {
+                    return ex.getClass();
+                }
+            }).get());
+        } finally {
+            other.shutdownNow();
+        }
+
+        strategy.clearContext();
+        try {
+            strategy.getContext();
+            fail("Detached context must be gone after clearContext()");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void detachedContextDoesNotLeakIntoSessions() {
+        VaadinSession session = createSession();
+        SecurityContext detached = createContext("background");
+        strategy.setContext(detached);
+
+        VaadinSession.setCurrent(session);
+        assertNotSame(detached, strategy.getContext());
+        assertNull(VaadinSessionSecurityContextHolderStrategy.peekContext(session).getAuthentication());
+        CurrentInstance.clearAll();
+        assertSame(detached, strategy.getContext());
+    }
+
+    @Test
+    public void peekContextWorksFromThreadsWithoutSession() {
+        VaadinSession session = createSession();
+        assertNull(VaadinSessionSecurityContextHolderStrategy.peekContext(session));
+
+        SecurityContext context = createContext("user");
+        runIn(session, () -> strategy.setContext(context));
+
+        assertNull(VaadinSession.getCurrent());
+        assertSame(context, VaadinSessionSecurityContextHolderStrategy.peekContext(session));
+    }
+
+    private static void runIn(VaadinSession session, Runnable work) {
+        VaadinSession.setCurrent(session);
+        try {
+            work.run();
+        } finally {
+            VaadinSessionSecurityContextHolderStrategy.clearThreadCache();
+            CurrentInstance.clearAll();
+        }
+    }
+
+    private static void replaceHolder(VaadinSession session) {
+        session.lock();
+        try {
+            session.setAttribute(HOLDER_ATTRIBUTE, null);
+            VaadinSessionSecurityContextHolderStrategy.attach(session);
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static SecurityContext createContext(String username) {
+        SecurityContext context = new CompiledSecurityContext();
+        context.setAuthentication(SessionAuthentication.of(username, AuthorityUtils.createAuthorityList("ROLE_USER")));
+        return context;
+    }
+
+    private static VaadinSession createSession() {
+        Lock lock = new ReentrantLock();
+        VaadinSession session = new VaadinSession(mock(VaadinService.class)) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+        // Like the session init listener of the CustomServlet
+        session.lock();
+        try {
+            VaadinSessionSecurityContextHolderStrategy.attach(session);
+        } finally {
+            session.unlock();
+        }
+        return session;
+    }
+}
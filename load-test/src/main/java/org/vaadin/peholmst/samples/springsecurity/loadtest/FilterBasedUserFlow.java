@@ -0,0 +1,38 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Logs in through the {@code /login} form and out through the {@code /logout} URL, both handled by Spring Security.
+ */
+public class FilterBasedUserFlow extends UserFlow {
+
+    public FilterBasedUserFlow(LoadReport report, int pushMessages) {
+        super(report, pushMessages);
+    }
+
+    @Override
+    protected void login(VaadinClient client, String username, String password) throws Exception {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("username", username);
+        parameters.put("password", password);
+        time(Step.LOGIN, () -> {
+            String location = client.postForm("login", parameters);
+            if (location == null || location.contains("error")) {
+                throw new IOException("Login failed");
+            }
+        });
+        time(Step.OPEN_UI, client::openUI);
+    }
+
+    @Override
+    protected void logout(VaadinClient client) throws Exception {
+        time(Step.LOGOUT, () -> {
+            // The UI only redirects the browser to the logout URL
+            expect(client.click("Logout"), "logout");
+            client.get("logout");
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+/**
+ * Logs in through the Vaadin {@code LoginForm} and out through the logout button, which closes the Vaadin session.
+ */
+public class HybridUserFlow extends UserFlow {
+
+    private static final long LOGIN_TIMEOUT_MS = 30000;
+
+    public HybridUserFlow(LoadReport report, int pushMessages) {
+        super(report, pushMessages);
+    }
+
+    @Override
+    protected void login(VaadinClient client, String username, String password) throws Exception {
+        // The login form is part of the UI, so the UI is opened first
+        time(Step.OPEN_UI, client::openUI);
+        time(Step.LOGIN, () -> {
+            client.setText("Username", username);
+            client.setText("Password", password);
+            // The login is authenticated in the background, the UI polls until the main view is shown
+            String response = client.click("Login");
+            if (!response.contains("Invoke user method")) {
+                client.pollUntil("Invoke user method", LOGIN_TIMEOUT_MS);
+            }
+        });
+    }
+
+    @Override
+    protected void logout(VaadinClient client) throws Exception {
+        time(Step.LOGOUT, () -> client.click("Logout"));
+    }
+}
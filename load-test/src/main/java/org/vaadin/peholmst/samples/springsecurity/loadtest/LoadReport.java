@@ -0,0 +1,111 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Collects the latencies and errors of every {@link Step} and prints them as a table. The latencies are recorded in
+ * microseconds.
+ */
+public class LoadReport {
+
+    private final Map<Step, StepStatistics> statistics = new EnumMap<>(Step.class);
+
+    private final LongAdder completedFlows = new LongAdder();
+
+    private final LongAdder failedFlows = new LongAdder();
+
+    private volatile long startNanos;
+
+    private volatile long endNanos;
+
+    public LoadReport() {
+        for (Step step : Step.values()) {
+            statistics.put(step, new StepStatistics());
+        }
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    public void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    public void recordLatency(Step step, long nanos) {
+        statistics.get(step).latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordError(Step step, Exception error) {
+        StepStatistics stepStatistics = statistics.get(step);
+        stepStatistics.errors.increment();
+        stepStatistics.firstError.compareAndSet(null, error);
+    }
+
+    public void recordFlow(boolean completed) {
+        (completed ? completedFlows : failedFlows).increment();
+    }
+
+    public long getCompletedFlows() {
+        return completedFlows.sum();
+    }
+
+    public long getFailedFlows() {
+        return failedFlows.sum();
+    }
+
+    public long getErrors(Step step) {
+        return statistics.get(step).errors.sum();
+    }
+
+    /**
+     * Returns a copy of the latencies of the given step.
+     */
+    public Histogram getLatencies(Step step) {
+        return statistics.get(step).latencies.copy();
+    }
+
+    public void print(String title, PrintStream out) {
+        double seconds = (endNanos - startNanos) / 1e9;
+        out.println();
+        out.printf("%s: %d flows completed, %d failed in %.1f s (%.1f flows/s)%n", title, getCompletedFlows(),
+            getFailedFlows(), seconds, getCompletedFlows() / seconds);
+        out.printf("%-26s %9s %7s %10s %10s %10s %10s %10s%n", "Step", "Count", "Errors", "Ops/s", "p50 ms",
+            "p99 ms", "p99.9 ms", "Max ms");
+        for (Step step : Step.values()) {
+            Histogram latencies = getLatencies(step);
+            out.printf("%-26s %9d %7d %10.1f %10.2f %10.2f %10.2f %10.2f%n", step.getDescription(),
+                latencies.getTotalCount(), getErrors(step), latencies.getTotalCount() / seconds,
+                millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+                millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+        }
+        for (Step step : Step.values()) {
+            Exception error = statistics.get(step).firstError.get();
+            if (error != null) {
+                out.printf("First error of %s: %s%n", step.getDescription(), error);
+            }
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static final class StepStatistics {
+
+        // Auto-resizing, so that even very slow steps can be recorded
+        final ConcurrentHistogram latencies = new ConcurrentHistogram(3);
+
+        final LongAdder errors = new LongAdder();
+
+        final AtomicReference<Exception> firstError = new AtomicReference<>();
+    }
+}
@@ -0,0 +1,116 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.vaadin.peholmst.samples.springsecurity.filterbased.FilterBasedSecuritySampleApplication;
+import org.vaadin.peholmst.samples.springsecurity.hybrid.HybridSecuritySampleApplication;
+
+/**
+ * Starts the sample applications in-process, one at a time, and runs simulated users against them over HTTP. The
+ * throughput and latency percentiles of every {@link Step} are printed when a module has been tested.
+ * <p>
+ * The modules can not run at the same time, since both of them install their own global
+ * {@link org.springframework.security.core.context.SecurityContextHolder} strategy.
+ */
+public final class LoadTest {
+
+    static final String FILTER_BASED = "filterbased";
+
+    static final String HYBRID = "hybrid";
+
+    private static final String PASSWORD = "p";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        for (String module : options.modules) {
+            switch (module) {
+                case FILTER_BASED:
+                    run("Filter based security", FilterBasedSecuritySampleApplication.class, "filter-based-security",
+                        options, report -> new FilterBasedUserFlow(report, options.pushMessages));
+                    break;
+                case HYBRID:
+                    run("Hybrid security", HybridSecuritySampleApplication.class, "hybrid-security", options,
+                        report -> new HybridUserFlow(report, options.pushMessages));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown module " + module);
+            }
+        }
+        System.exit(0); // The applications leave non-daemon threads behind
+    }
+
+    private static void run(String title, Class<?> applicationClass, String module, LoadTestOptions options,
+        Function<LoadReport, UserFlow> flowFactory) throws Exception {
+        // Both sample modules are on the classpath, each keeps a copy of its configuration in a directory of its own.
+        // All simulated users share two accounts and one address, which the login throttle would reject.
+        ConfigurableApplicationContext application = new SpringApplicationBuilder(applicationClass)
+            .run("--spring.config.location=classpath:/" + module + "/", "--server.port=0", "--management.port=0",
+                "--login.throttle.enabled=false", "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+        try (CloseableHttpClient httpClient = createHttpClient(options.concurrency)) {
+            int port = ((EmbeddedWebApplicationContext) application).getEmbeddedServletContainer().getPort();
+            String baseUrl = "http://localhost:" + port
+                + application.getEnvironment().getProperty("server.context-path", "") + "/";
+
+            LoadReport warmup = new LoadReport();
+            runUsers(options.warmupUsers, options, flowFactory.apply(warmup), httpClient, baseUrl, warmup);
+
+            LoadReport report = new LoadReport();
+            runUsers(options.users, options, flowFactory.apply(report), httpClient, baseUrl, report);
+            report.print(title, System.out);
+        } finally {
+            application.close();
+        }
+    }
+
+    private static void runUsers(int users, LoadTestOptions options, UserFlow flow, CloseableHttpClient httpClient,
+        String baseUrl, LoadReport report) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.concurrency, daemonThreadFactory());
+        report.start();
+        for (int i = 0; i < users; ++i) {
+            executor.execute(() -> {
+                String username = ThreadLocalRandom.current().nextDouble() < options.adminRatio ? "admin" : "user";
+                report.recordFlow(flow.run(new VaadinClient(httpClient, baseUrl), username, PASSWORD));
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        report.stop();
+    }
+
+    private static CloseableHttpClient createHttpClient(int concurrency) {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(10000)
+            .setSocketTimeout(60000) // Long enough for a push long-poll
+            .build();
+        return HttpClients.custom()
+            .setDefaultRequestConfig(requestConfig)
+            .setMaxConnTotal(concurrency)
+            .setMaxConnPerRoute(concurrency)
+            .disableRedirectHandling()
+            .build();
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "load-test-user-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
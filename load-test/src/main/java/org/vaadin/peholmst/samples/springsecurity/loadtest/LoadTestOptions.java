@@ -0,0 +1,75 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The command line options of the {@link LoadTest}, given as {@code --name=value}.
+ */
+public class LoadTestOptions {
+
+    /**
+     * The number of simulated users, each one runs the whole flow once.
+     */
+    int users = 2000;
+
+    /**
+     * The number of users that are active at the same time.
+     */
+    int concurrency = 200;
+
+    /**
+     * The number of users to run before the measurements start.
+     */
+    int warmupUsers = 200;
+
+    /**
+     * The number of push messages every user waits for.
+     */
+    int pushMessages = 1;
+
+    /**
+     * The share of users that log in as {@code admin}, the rest log in as {@code user}.
+     */
+    double adminRatio = 0.5;
+
+    /**
+     * The modules to test, in order.
+     */
+    Set<String> modules = new LinkedHashSet<>(Arrays.asList(LoadTest.FILTER_BASED, LoadTest.HYBRID));
+
+    static LoadTestOptions parse(String... args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "users":
+                    options.users = Integer.parseInt(value);
+                    break;
+                case "concurrency":
+                    options.concurrency = Integer.parseInt(value);
+                    break;
+                case "warmup-users":
+                    options.warmupUsers = Integer.parseInt(value);
+                    break;
+                case "push-messages":
+                    options.pushMessages = Integer.parseInt(value);
+                    break;
+                case "admin-ratio":
+                    options.adminRatio = Double.parseDouble(value);
+                    break;
+                case "modules":
+                    options.modules = new LinkedHashSet<>(Arrays.asList(value.split(",")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,26 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+/**
+ * The steps of a simulated user flow. Every step is timed and reported separately.
+ */
+public enum Step {
+
+    LOGIN("Login"),
+    OPEN_UI("Open UI"),
+    NAVIGATE_ADMIN_VIEW("Navigate to \"admin\""),
+    NAVIGATE_USER_VIEW("Navigate to \"\""),
+    INVOKE_USER_METHOD("Invoke user method"),
+    INVOKE_ADMIN_METHOD("Invoke admin method"),
+    RECEIVE_PUSH("Receive push"),
+    LOGOUT("Logout");
+
+    private final String description;
+
+    Step(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,88 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.io.IOException;
+
+/**
+ * The flow of one simulated user: log in, navigate to the user and admin views, invoke the backend methods, receive
+ * server push and log out. Logging in and out is done differently by the two sample modules.
+ */
+public abstract class UserFlow {
+
+    private final LoadReport report;
+
+    private final int pushMessages;
+
+    protected UserFlow(LoadReport report, int pushMessages) {
+        this.report = report;
+        this.pushMessages = pushMessages;
+    }
+
+    /**
+     * Runs the whole flow with the given client. Returns false if any step failed, in which case the rest of the
+     * flow is skipped.
+     */
+    public boolean run(VaadinClient client, String username, String password) {
+        try {
+            login(client, username, password);
+            // The UI starts on the user view, so the admin view is visited first
+            time(Step.NAVIGATE_ADMIN_VIEW, () -> expect(client.click("Navigate to admin view"),
+                "admin".equals(username) ? "Admin view" : "You don't have access"));
+            time(Step.NAVIGATE_USER_VIEW, () -> expect(client.click("Navigate to user view"), "User view"));
+            invoke(client, Step.INVOKE_USER_METHOD, "Invoke user method");
+            invoke(client, Step.INVOKE_ADMIN_METHOD, "Invoke admin method");
+            for (int i = 0; i < pushMessages; ++i) {
+                time(Step.RECEIVE_PUSH, client::receivePush);
+            }
+            logout(client);
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Logs in and opens the main UI, timing both as {@link Step#LOGIN} and {@link Step#OPEN_UI}.
+     */
+    protected abstract void login(VaadinClient client, String username, String password) throws Exception;
+
+    /**
+     * Logs out, timing it as {@link Step#LOGOUT}.
+     */
+    protected abstract void logout(VaadinClient client) throws Exception;
+
+    private void invoke(VaadinClient client, Step step, String caption) throws Exception {
+        // Users do not click disabled buttons, and the server would ignore the click anyway
+        if (client.isEnabled(caption)) {
+            time(step, () -> expect(client.click(caption), "Hello from"));
+        }
+    }
+
+    /**
+     * Runs the given action and records its latency, or an error if it throws an exception.
+     */
+    protected void time(Step step, Action action) throws Exception {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } catch (Exception ex) {
+            report.recordError(step, ex);
+            throw ex;
+        }
+        report.recordLatency(step, System.nanoTime() - start);
+    }
+
+    /**
+     * Throws an exception unless the given response contains the expected text.
+     */
+    protected static void expect(String response, String text) throws IOException {
+        if (response == null || !response.contains(text)) {
+            throw new IOException("Expected '" + text + "' in the response");
+        }
+    }
+
+    @FunctionalInterface
+    protected interface Action {
+
+        void run() throws Exception;
+    }
+}
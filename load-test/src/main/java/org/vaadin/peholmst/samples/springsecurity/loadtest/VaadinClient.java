@@ -0,0 +1,356 @@
+package org.vaadin.peholmst.samples.springsecurity.loadtest;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A headless Vaadin client for one simulated user. It speaks just enough of the Vaadin 7 protocol to bootstrap a UI,
+ * send server RPC calls to components that are looked up by caption and receive server push messages over Atmosphere
+ * long-polling. Every client has its own cookies, the HTTP connections are shared.
+ */
+public class VaadinClient {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final Pattern APP_ID = Pattern.compile("initApplication\\(\"([^\"]+)\"");
+
+    private static final String JSON_PREFIX = "for(;;);";
+
+    private static final String UI_CONNECTOR_ID = "0";
+
+    private static final String ATMOSPHERE_VERSION = "2.2.7.vaadin1-javascript";
+
+    private final CloseableHttpClient httpClient;
+
+    private final HttpClientContext context = HttpClientContext.create();
+
+    private final String baseUrl;
+
+    private final Map<String, ObjectNode> connectors = new HashMap<>();
+
+    private String uiId;
+
+    private String csrfToken;
+
+    private int syncId = -1;
+
+    private int clientId;
+
+    private String pushTrackingId;
+
+    /**
+     * Creates a new client for the application at the given base URL, which must end with a slash.
+     */
+    public VaadinClient(CloseableHttpClient httpClient, String baseUrl) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        context.setCookieStore(new BasicCookieStore());
+    }
+
+    /**
+     * Sends a GET request to the given path, relative to the base URL, and returns the body.
+     */
+    public String get(String path) throws IOException {
+        return execute(new HttpGet(baseUrl + path), null);
+    }
+
+    /**
+     * Posts the given form parameters to the given path, relative to the base URL. Redirects are not followed, the
+     * redirect location is returned instead, or {@code null} if the response was not a redirect.
+     */
+    public String postForm(String path, Map<String, String> parameters) throws IOException {
+        HttpPost post = new HttpPost(baseUrl + path);
+        post.setEntity(new UrlEncodedFormEntity(toNameValuePairs(parameters), StandardCharsets.UTF_8));
+        String[] location = new String[1];
+        execute(post, response -> {
+            if (response.getFirstHeader("Location") != null) {
+                location[0] = response.getFirstHeader("Location").getValue();
+            }
+        });
+        return location[0];
+    }
+
+    /**
+     * Loads the bootstrap page and initializes a new UI, just like the Vaadin client engine does.
+     */
+    public void openUI() throws IOException {
+        String html = get("");
+        Matcher matcher = APP_ID.matcher(html);
+        if (!matcher.find()) {
+            throw new IOException("The bootstrap page did not contain an application");
+        }
+        String appId = matcher.group(1);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("v-browserDetails", "1");
+        parameters.put("theme", "valo");
+        parameters.put("v-appId", appId);
+        parameters.put("v-sh", "1080");
+        parameters.put("v-sw", "1920");
+        parameters.put("v-cw", "1920");
+        parameters.put("v-ch", "1000");
+        parameters.put("v-vw", "1920");
+        parameters.put("v-vh", "1000");
+        parameters.put("v-curdate", Long.toString(System.currentTimeMillis()));
+        parameters.put("v-tzo", "0");
+        parameters.put("v-rtzo", "0");
+        parameters.put("v-dstd", "0");
+        parameters.put("v-dston", "false");
+        parameters.put("v-loc", baseUrl);
+        parameters.put("v-wn", appId + "-0.1");
+        HttpPost post = new HttpPost(baseUrl + "?v-" + System.currentTimeMillis());
+        post.setEntity(new UrlEncodedFormEntity(toNameValuePairs(parameters), StandardCharsets.UTF_8));
+        JsonNode response = MAPPER.readTree(execute(post, null));
+        uiId = response.path("v-uiId").asText();
+        JsonNode uidl = MAPPER.readTree(response.path("uidl").asText());
+        csrfToken = uidl.path("Vaadin-Security-Key").asText();
+        clientId = 0;
+        connectors.clear();
+        pushTrackingId = null;
+        absorb(uidl);
+    }
+
+    /**
+     * Returns the id of the connector with the given caption, or {@code null} if there is no such connector.
+     */
+    public String findByCaption(String caption) {
+        for (Map.Entry<String, ObjectNode> connector : connectors.entrySet()) {
+            if (caption.equals(connector.getValue().path("caption").asText(null))) {
+                return connector.getKey();
+            }
+        }
+        return null;
+    }
+
+    public boolean isEnabled(String caption) {
+        String connectorId = requireConnector(caption);
+        return connectors.get(connectorId).path("enabled").asBoolean(true);
+    }
+
+    /**
+     * Clicks the button with the given caption and returns the response as a string.
+     */
+    public String click(String caption) throws IOException {
+        ObjectNode mouseDetails = NODES.objectNode();
+        mouseDetails.put("button", "LEFT");
+        mouseDetails.put("clientX", 0);
+        mouseDetails.put("clientY", 0);
+        mouseDetails.put("relativeX", 0);
+        mouseDetails.put("relativeY", 0);
+        mouseDetails.put("altKey", false);
+        mouseDetails.put("ctrlKey", false);
+        mouseDetails.put("metaKey", false);
+        mouseDetails.put("shiftKey", false);
+        mouseDetails.put("type", 1);
+        ArrayNode invocation = NODES.arrayNode();
+        invocation.add(requireConnector(caption));
+        invocation.add("com.vaadin.shared.ui.button.ButtonServerRpc");
+        invocation.add("click");
+        invocation.add(NODES.arrayNode().add(mouseDetails));
+        return sendRpc(NODES.arrayNode().add(invocation));
+    }
+
+    /**
+     * Sets the value of the text field with the given caption. Text fields still use the legacy variable RPC.
+     */
+    public String setText(String caption, String value) throws IOException {
+        ArrayNode variable = NODES.arrayNode().add("text").add(NODES.arrayNode().add("s").add(value));
+        ArrayNode invocation = NODES.arrayNode().add(requireConnector(caption)).add("v").add("v").add(variable);
+        return sendRpc(NODES.arrayNode().add(invocation));
+    }
+
+    /**
+     * Polls the UI until a response contains the given text, at the poll interval of the UI. Returns the response
+     * that contained the text.
+     */
+    public String pollUntil(String text, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            int pollInterval = connectors.get(UI_CONNECTOR_ID).path("pollInterval").asInt(-1);
+            if (pollInterval < 0) {
+                throw new IOException("The UI stopped polling before '" + text + "' was received");
+            }
+            Thread.sleep(pollInterval);
+            ArrayNode invocation = NODES.arrayNode().add(UI_CONNECTOR_ID).add("com.vaadin.shared.ui.ui.UIServerRpc")
+                .add("poll").add(NODES.arrayNode());
+            String response = sendRpc(NODES.arrayNode().add(invocation));
+            if (response.contains(text)) {
+                return response;
+            }
+        }
+        throw new IOException("Timed out waiting for '" + text + "'");
+    }
+
+    /**
+     * Waits for the next server push message and returns it. The push connection is opened on the first call.
+     */
+    public String receivePush() throws IOException {
+        while (true) {
+            for (String message : pollPush()) {
+                if (message.startsWith(JSON_PREFIX)) {
+                    absorbMessage(message);
+                    return message;
+                }
+            }
+        }
+    }
+
+    private List<String> pollPush() throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("v-uiId", uiId);
+        parameters.put("v-csrfToken", csrfToken);
+        parameters.put("X-Atmosphere-tracking-id", pushTrackingId == null ? "0" : pushTrackingId);
+        parameters.put("X-Atmosphere-Framework", ATMOSPHERE_VERSION);
+        parameters.put("X-Atmosphere-Transport", "long-polling");
+        parameters.put("X-atmo-protocol", "true");
+        parameters.put("X-Cache-Date", "0");
+        parameters.put("Content-Type", "application/json; charset=UTF-8");
+        List<String> messages = parseAtmosphereMessages(get("vaadinServlet/PUSH?" + toQueryString(parameters)));
+        if (pushTrackingId == null) {
+            // The first message of the handshake is "<tracking id>|<heartbeat interval>|<heartbeat padding>|"
+            if (messages.isEmpty()) {
+                throw new IOException("The push handshake did not return a tracking id");
+            }
+            pushTrackingId = messages.remove(0).split("\\|", 2)[0];
+        }
+        return messages;
+    }
+
+    private String sendRpc(ArrayNode rpc) throws IOException {
+        ObjectNode request = NODES.objectNode();
+        request.put("csrfToken", csrfToken);
+        request.set("rpc", rpc);
+        request.put("syncId", syncId);
+        request.put("clientId", clientId++);
+        HttpPost post = new HttpPost(baseUrl + "vaadinServlet/UIDL/?v-uiId=" + uiId);
+        post.setEntity(new StringEntity(MAPPER.writeValueAsString(request), ContentType.APPLICATION_JSON));
+        String response = execute(post, null);
+        absorbMessage(response);
+        return response;
+    }
+
+    private void absorbMessage(String message) throws IOException {
+        if (!message.startsWith(JSON_PREFIX)) {
+            throw new IOException("Unexpected response: " + abbreviate(message));
+        }
+        JsonNode uidl = MAPPER.readTree(message.substring(JSON_PREFIX.length())).path(0);
+        JsonNode meta = uidl.path("meta");
+        if (meta.has("appError") || meta.has("sessionExpired")) {
+            throw new IOException("Application error: " + meta);
+        }
+        absorb(uidl);
+    }
+
+    private void absorb(JsonNode uidl) {
+        Iterator<Map.Entry<String, JsonNode>> states = uidl.path("state").fields();
+        while (states.hasNext()) {
+            Map.Entry<String, JsonNode> state = states.next();
+            connectors.computeIfAbsent(state.getKey(), key -> NODES.objectNode()).setAll((ObjectNode) state.getValue());
+        }
+        if (uidl.has("syncId")) {
+            syncId = Math.max(syncId, uidl.path("syncId").asInt());
+        }
+    }
+
+    private String requireConnector(String caption) {
+        String connectorId = findByCaption(caption);
+        if (connectorId == null) {
+            throw new IllegalStateException("No component with caption '" + caption + "'");
+        }
+        return connectorId;
+    }
+
+    private String execute(HttpUriRequest request, ResponseCallback callback) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(request, context)) {
+            int status = response.getStatusLine().getStatusCode();
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+            if (status >= 400) {
+                throw new IOException(request.getMethod() + " " + request.getURI() + " returned " + status);
+            }
+            if (callback != null) {
+                callback.handle(response);
+            }
+            return body;
+        }
+    }
+
+    /**
+     * Splits a long-polling response into messages. Atmosphere pads the response with whitespace and prefixes every
+     * message with its length: {@code <length>|<message>}.
+     */
+    static List<String> parseAtmosphereMessages(String body) {
+        List<String> messages = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            while (position < body.length() && Character.isWhitespace(body.charAt(position))) {
+                position++;
+            }
+            int separator = body.indexOf('|', position);
+            if (separator < 0) {
+                return messages;
+            }
+            int length = Integer.parseInt(body.substring(position, separator));
+            int end = Math.min(separator + 1 + length, body.length());
+            messages.add(body.substring(separator + 1, end));
+            position = end;
+        }
+    }
+
+    private static List<NameValuePair> toNameValuePairs(Map<String, String> parameters) {
+        List<NameValuePair> pairs = new ArrayList<>(parameters.size());
+        parameters.forEach((name, value) -> pairs.add(new BasicNameValuePair(name, value)));
+        return pairs;
+    }
+
+    private static String toQueryString(Map<String, String> parameters) throws IOException {
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(URLEncoder.encode(parameter.getKey(), "UTF-8")).append('=')
+                .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+        }
+        return query.toString();
+    }
+
+    private static String abbreviate(String message) {
+        return message.length() > 200 ? message.substring(0, 200) + "..." : message;
+    }
+
+    @FunctionalInterface
+    private interface ResponseCallback {
+
+        void handle(HttpResponse response) throws IOException;
+    }
+}